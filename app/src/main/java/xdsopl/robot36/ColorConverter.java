@@ -26,7 +26,7 @@ public final class ColorConverter {
 		return float2int(compressed);
 	}
 
-	private static int YUV2RGB(int Y, int U, int V) {
+	public static int YUV2RGB(int Y, int U, int V) {
 		Y -= 16;
 		U -= 128;
 		V -= 128;
@@ -6,6 +6,10 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class ComplexConvolution {
 	public final int length;
 	public final float[] taps;
@@ -38,4 +42,26 @@ public class ComplexConvolution {
 		}
 		return sum;
 	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeInt(length);
+		out.writeInt(pos);
+		Snapshot.writeFloats(out, real, 0, length);
+		Snapshot.writeFloats(out, imag, 0, length);
+	}
+
+	// history of another length is read but not used
+	void restore(DataInput in) throws IOException {
+		int count = in.readInt();
+		int position = in.readInt();
+		if (count != length) {
+			Snapshot.skipFloats(in, 2 * count);
+			return;
+		}
+		if (position < 0 || position >= length)
+			throw new IOException("position out of range");
+		Snapshot.readFloats(in, real, 0, length);
+		Snapshot.readFloats(in, imag, 0, length);
+		pos = position;
+	}
 }
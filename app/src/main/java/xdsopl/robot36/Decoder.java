@@ -6,27 +6,27 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class Decoder {
 
 	private final SimpleMovingAverage pulseFilter;
-	private final Demodulator demodulator;
 	private final PixelBuffer pixelBuffer;
 	private final PixelBuffer scopeBuffer;
 	private final PixelBuffer imageBuffer;
 	private final float[] scanLineBuffer;
 	private final float[] scratchBuffer;
-	private final int[] last5msSyncPulses;
-	private final int[] last9msSyncPulses;
-	private final int[] last20msSyncPulses;
-	private final int[] last5msScanLines;
-	private final int[] last9msScanLines;
-	private final int[] last20msScanLines;
-	private final float[] last5msFrequencyOffsets;
-	private final float[] last9msFrequencyOffsets;
-	private final float[] last20msFrequencyOffsets;
+	private final SyncPulseHistory syncPulse5msHistory;
+	private final SyncPulseHistory syncPulse9msHistory;
+	private final SyncPulseHistory syncPulse20msHistory;
+	private final ScanLineTracker scanLineTracker;
+	private final SlantCorrector slantCorrector;
 	private final float[] visCodeBitFrequencies;
 	private final int pulseFilterDelay;
 	private final int scanLineMinSamples;
@@ -38,34 +38,72 @@ public class Decoder {
 	private final int visCodeBitSamples;
 	private final int visCodeSamples;
 	private final Mode rawMode;
-	private final ArrayList<Mode> syncPulse5msModes;
-	private final ArrayList<Mode> syncPulse9msModes;
-	private final ArrayList<Mode> syncPulse20msModes;
+	private final int sampleRate;
+	private final List<Mode> syncPulse5msModes;
+	private final List<Mode> syncPulse9msModes;
+	private final List<Mode> syncPulse20msModes;
+	private final ArrayList<ImageListener> imageListeners;
+	private final IntBuffer imageView;
+	private final int planarBandRows;
+
+	private enum HeaderState {
+		Idle,
+		LeaderTone,
+		StartBit,
+		VisCode,
+		SyncPulse
+	}
 
 	protected Mode currentMode;
+	private Demodulator demodulator;
+	private int[] frequencyHistogram;
 	private boolean lockMode;
+	private HeaderState headerState;
 	private int currentSample;
-	private int leaderBreakIndex;
-	private int lastSyncPulseIndex;
+	private int headerIndex;
+	private int headerEndIndex;
+	private int visCodeBitIndex;
+	private int visCodeBitSample;
+	private int visCode;
+	private int pulseFilterCount;
+	private float leaderFreqOffset;
 	private int currentScanLineSamples;
 	private float lastFrequencyOffset;
+	private RowScaler scopeScaler;
+	private int scopeRowPhase;
+	private RowScaler previewScaler;
+	private int previewWidth;
+	private boolean planar;
+	private PlanarImage planarImage;
+	private float[] planarQuality;
+	private int planarLines;
+	private int planarConverted;
+	private int[] scopeScratch;
 
 	Decoder(PixelBuffer scopeBuffer, PixelBuffer imageBuffer, String rawName, int sampleRate) {
+		this(scopeBuffer, imageBuffer, rawName, sampleRate, 4);
+	}
+
+	Decoder(PixelBuffer scopeBuffer, PixelBuffer imageBuffer, String rawName, int sampleRate, int scanLineCount) {
+		this.sampleRate = sampleRate;
 		this.scopeBuffer = scopeBuffer;
 		this.imageBuffer = imageBuffer;
 		imageBuffer.line = -1;
+		imageListeners = new ArrayList<>();
+		imageView = IntBuffer.wrap(imageBuffer.pixels).asReadOnlyBuffer();
+		planarBandRows = 16;
 		pixelBuffer = new PixelBuffer(800, 2);
-		demodulator = new Demodulator(sampleRate);
+		pixelBuffer.line = -1;
 		double pulseFilterSeconds = 0.0025;
 		int pulseFilterSamples = (int) Math.round(pulseFilterSeconds * sampleRate) | 1;
 		pulseFilterDelay = (pulseFilterSamples - 1) / 2;
 		pulseFilter = new SimpleMovingAverage(pulseFilterSamples);
-		double scanLineMaxSeconds = 7;
-		int scanLineMaxSamples = (int) Math.round(scanLineMaxSeconds * sampleRate);
-		scanLineBuffer = new float[scanLineMaxSamples];
 		double scratchBufferSeconds = 1.1;
 		int scratchBufferSamples = (int) Math.round(scratchBufferSeconds * sampleRate);
 		scratchBuffer = new float[scratchBufferSamples];
+		double scanLineMaxSeconds = Math.max(7, (scanLineCount + 2) * scratchBufferSeconds);
+		int scanLineMaxSamples = (int) Math.round(scanLineMaxSeconds * sampleRate);
+		scanLineBuffer = new float[scanLineMaxSamples];
 		double leaderToneSeconds = 0.3;
 		leaderToneSamples = (int) Math.round(leaderToneSeconds * sampleRate);
 		double leaderToneToleranceSeconds = leaderToneSeconds * 0.2;
@@ -77,72 +115,29 @@ public class Decoder {
 		double visCodeSeconds = 0.3;
 		visCodeSamples = (int) Math.round(visCodeSeconds * sampleRate);
 		visCodeBitFrequencies = new float[10];
-		int scanLineCount = 4;
-		last5msScanLines = new int[scanLineCount];
-		last9msScanLines = new int[scanLineCount];
-		last20msScanLines = new int[scanLineCount];
-		int syncPulseCount = scanLineCount + 1;
-		last5msSyncPulses = new int[syncPulseCount];
-		last9msSyncPulses = new int[syncPulseCount];
-		last20msSyncPulses = new int[syncPulseCount];
-		last5msFrequencyOffsets = new float[syncPulseCount];
-		last9msFrequencyOffsets = new float[syncPulseCount];
-		last20msFrequencyOffsets = new float[syncPulseCount];
+		headerState = HeaderState.Idle;
+		syncPulse5msHistory = new SyncPulseHistory(scanLineCount);
+		syncPulse9msHistory = new SyncPulseHistory(scanLineCount);
+		syncPulse20msHistory = new SyncPulseHistory(scanLineCount);
+		scanLineTracker = new ScanLineTracker(0.5, 2);
 		double scanLineMinSeconds = 0.05;
 		scanLineMinSamples = (int) Math.round(scanLineMinSeconds * sampleRate);
 		double syncPulseToleranceSeconds = 0.03;
 		syncPulseToleranceSamples = (int) Math.round(syncPulseToleranceSeconds * sampleRate);
 		double scanLineToleranceSeconds = 0.001;
 		scanLineToleranceSamples = (int) Math.round(scanLineToleranceSeconds * sampleRate);
+		slantCorrector = new SlantCorrector(sampleRate, scratchBufferSamples, scanLineToleranceSamples);
 		rawMode = new RawDecoder(rawName, sampleRate);
-		Mode robot36 = new Robot_36_Color(sampleRate);
-		currentMode = robot36;
-		currentScanLineSamples = robot36.getScanLineSamples();
-		syncPulse5msModes = new ArrayList<>();
-		syncPulse5msModes.add(RGBModes.Wraase_SC2_180(sampleRate));
-		syncPulse5msModes.add(RGBModes.Martin("1", 44, 0.146432, sampleRate));
-		syncPulse5msModes.add(RGBModes.Martin("2", 40, 0.073216, sampleRate));
-		syncPulse9msModes = new ArrayList<>();
-		syncPulse9msModes.add(robot36);
-		syncPulse9msModes.add(new Robot_72_Color(sampleRate));
-		syncPulse9msModes.add(RGBModes.Scottie("1", 60, 0.138240, sampleRate));
-		syncPulse9msModes.add(RGBModes.Scottie("2", 56, 0.088064, sampleRate));
-		syncPulse9msModes.add(RGBModes.Scottie("DX", 76, 0.3456, sampleRate));
-		syncPulse20msModes = new ArrayList<>();
-		syncPulse20msModes.add(new PaulDon("50", 93, 320, 256, 0.09152, sampleRate));
-		syncPulse20msModes.add(new PaulDon("90", 99, 320, 256, 0.17024, sampleRate));
-		syncPulse20msModes.add(new PaulDon("120", 95, 640, 496, 0.1216, sampleRate));
-		syncPulse20msModes.add(new PaulDon("160", 98, 512, 400, 0.195584, sampleRate));
-		syncPulse20msModes.add(new PaulDon("180", 96, 640, 496, 0.18304, sampleRate));
-		syncPulse20msModes.add(new PaulDon("240", 97, 640, 496, 0.24448, sampleRate));
-		syncPulse20msModes.add(new PaulDon("290", 94, 800, 616, 0.2288, sampleRate));
-	}
-
-	private double scanLineMean(int[] lines) {
-		double mean = 0;
-		for (int diff : lines)
-			mean += diff;
-		mean /= lines.length;
-		return mean;
-	}
-
-	private double scanLineStdDev(int[] lines, double mean) {
-		double stdDev = 0;
-		for (int diff : lines)
-			stdDev += (diff - mean) * (diff - mean);
-		stdDev = Math.sqrt(stdDev / lines.length);
-		return stdDev;
-	}
-
-	private double frequencyOffsetMean(float[] offsets) {
-		double mean = 0;
-		for (float diff : offsets)
-			mean += diff;
-		mean /= offsets.length;
-		return mean;
-	}
-
-	private Mode detectMode(ArrayList<Mode> modes, int line) {
+		ModeTable modeTable = ModeTable.get(sampleRate);
+		syncPulse5msModes = modeTable.syncPulse5msModes;
+		syncPulse9msModes = modeTable.syncPulse9msModes;
+		syncPulse20msModes = modeTable.syncPulse20msModes;
+		currentMode = syncPulse9msModes.get(0);
+		currentScanLineSamples = currentMode.getScanLineSamples();
+		scanLineTracker.reset(0, currentScanLineSamples);
+	}
+
+	private Mode detectMode(List<Mode> modes, int line) {
 		Mode bestMode = rawMode;
 		int bestDist = Integer.MAX_VALUE;
 		for (Mode mode : modes) {
@@ -155,44 +150,58 @@ public class Decoder {
 		return bestMode;
 	}
 
-	private Mode findMode(ArrayList<Mode> modes, int code) {
+	private static Mode findMode(List<Mode> modes, int code) {
 		for (Mode mode : modes)
 			if (mode.getCode() == code)
 				return mode;
 		return null;
 	}
 
-	private Mode findMode(ArrayList<Mode> modes, String name) {
+	private static Mode findMode(List<Mode> modes, String name) {
 		for (Mode mode : modes)
 			if (mode.getName().equals(name))
 				return mode;
 		return null;
 	}
 
-	private void copyUnscaled() {
-		int width = Math.min(scopeBuffer.width, pixelBuffer.width);
-		for (int row = 0; row < pixelBuffer.height; ++row) {
-			int line = scopeBuffer.width * scopeBuffer.line;
-			System.arraycopy(pixelBuffer.pixels, row * pixelBuffer.width, scopeBuffer.pixels, line, width);
-			Arrays.fill(scopeBuffer.pixels, line + width, line + scopeBuffer.width, 0);
-			System.arraycopy(scopeBuffer.pixels, line, scopeBuffer.pixels, scopeBuffer.width * (scopeBuffer.line + scopeBuffer.height / 2), scopeBuffer.width);
-			scopeBuffer.line = (scopeBuffer.line + 1) % (scopeBuffer.height / 2);
-		}
+	private boolean yuvLines() {
+		return planar && currentMode.isYUV();
 	}
 
-	private void copyScaled(int scale) {
+	// rows are repeated or skipped as needed to keep the aspect ratio
+	private void copyScaled(boolean yuv) {
+		if (scopeScaler == null || scopeScaler.sourceWidth != pixelBuffer.width)
+			scopeScaler = RowScaler.get(pixelBuffer.width, scopeBuffer.width);
 		for (int row = 0; row < pixelBuffer.height; ++row) {
+			scopeRowPhase += scopeBuffer.width;
+			if (scopeRowPhase < pixelBuffer.width)
+				continue;
 			int line = scopeBuffer.width * scopeBuffer.line;
-			for (int col = 0; col < pixelBuffer.width; ++col)
-				for (int i = 0; i < scale; ++i)
-					scopeBuffer.pixels[line + col * scale + i] = pixelBuffer.pixels[pixelBuffer.width * row + col];
-			Arrays.fill(scopeBuffer.pixels, line + pixelBuffer.width * scale, line + scopeBuffer.width, 0);
-			System.arraycopy(scopeBuffer.pixels, line, scopeBuffer.pixels, scopeBuffer.width * (scopeBuffer.line + scopeBuffer.height / 2), scopeBuffer.width);
-			scopeBuffer.line = (scopeBuffer.line + 1) % (scopeBuffer.height / 2);
-			for (int i = 1; i < scale; ++i) {
+			int[] source = pixelBuffer.pixels;
+			int offset = row * pixelBuffer.width;
+			// only the rows that are shown get converted, at whichever width is smaller
+			boolean narrower = pixelBuffer.width < scopeBuffer.width;
+			if (yuv && narrower) {
+				if (scopeScratch == null)
+					scopeScratch = new int[pixelBuffer.pixels.length / 2];
+				for (int i = 0; i < pixelBuffer.width; ++i)
+					scopeScratch[i] = ColorConverter.YUV2RGB(source[offset + i]);
+				source = scopeScratch;
+				offset = 0;
+			}
+			if (pixelBuffer.width == scopeBuffer.width)
+				System.arraycopy(source, offset, scopeBuffer.pixels, line, scopeBuffer.width);
+			else
+				scopeScaler.scale(source, offset, scopeBuffer.pixels, line);
+			if (yuv && !narrower)
+				for (int i = line; i < line + scopeBuffer.width; ++i)
+					scopeBuffer.pixels[i] = ColorConverter.YUV2RGB(scopeBuffer.pixels[i]);
+			scopeRowPhase -= pixelBuffer.width;
+			scopeBuffer.advance();
+			while (scopeRowPhase >= pixelBuffer.width) {
 				System.arraycopy(scopeBuffer.pixels, line, scopeBuffer.pixels, scopeBuffer.width * scopeBuffer.line, scopeBuffer.width);
-				System.arraycopy(scopeBuffer.pixels, line, scopeBuffer.pixels, scopeBuffer.width * (scopeBuffer.line + scopeBuffer.height / 2), scopeBuffer.width);
-				scopeBuffer.line = (scopeBuffer.line + 1) % (scopeBuffer.height / 2);
+				scopeRowPhase -= pixelBuffer.width;
+				scopeBuffer.advance();
 			}
 		}
 	}
@@ -200,52 +209,111 @@ public class Decoder {
 	private void copyLines(boolean okay) {
 		if (!okay)
 			return;
+		boolean yuv = yuvLines();
 		boolean finish = false;
-		if (imageBuffer.line >= 0 && imageBuffer.line < imageBuffer.height && imageBuffer.width == pixelBuffer.width) {
+		// preview lines get stretched to the width of the image, until the slant corrector delivers the full resolution
+		boolean stretch = imageBuffer.width != pixelBuffer.width;
+		if (imageBuffer.line >= 0 && imageBuffer.line < imageBuffer.height && (!stretch || previewWidth > 0)) {
 			int width = imageBuffer.width;
-			for (int row = 0; row < pixelBuffer.height && imageBuffer.line < imageBuffer.height; ++row, ++imageBuffer.line)
-				System.arraycopy(pixelBuffer.pixels, row * width, imageBuffer.pixels, imageBuffer.line * width, width);
+			if (stretch && (previewScaler == null || previewScaler.sourceWidth != pixelBuffer.width || previewScaler.destinationWidth != width))
+				previewScaler = RowScaler.get(pixelBuffer.width, width);
+			float quality = (float) Math.max(0, 1 - Math.abs(scanLineTracker.error()) / syncPulseToleranceSamples);
+			for (int row = 0; row < pixelBuffer.height && imageBuffer.line < imageBuffer.height; ++row, ++imageBuffer.line) {
+				int[] source = pixelBuffer.pixels;
+				int offset = row * pixelBuffer.width;
+				if (stretch) {
+					previewScaler.scale(source, offset, imageBuffer.pixels, imageBuffer.line * width);
+					source = imageBuffer.pixels;
+					offset = imageBuffer.line * width;
+				}
+				if (yuv) {
+					if (planarLines == 0)
+						beginPlanar();
+					planarImage.putRow(imageBuffer.line, source, offset);
+					planarQuality[imageBuffer.line] = quality;
+					planarLines = imageBuffer.line + 1;
+					continue;
+				}
+				if (!stretch)
+					System.arraycopy(source, offset, imageBuffer.pixels, imageBuffer.line * width, width);
+				for (ImageListener listener : imageListeners) {
+					imageView.clear();
+					imageView.position(imageBuffer.line * width);
+					imageView.limit(imageBuffer.line * width + width);
+					listener.rowDecoded(imageView, imageBuffer.line, quality);
+				}
+			}
 			finish = imageBuffer.line == imageBuffer.height;
+			if (planarLines - planarConverted >= planarBandRows)
+				convertPlanar();
 		}
-		int scale = scopeBuffer.width / pixelBuffer.width;
-		if (scale <= 1)
-			copyUnscaled();
-		else
-			copyScaled(scale);
+		if (finish) {
+			convertPlanar();
+			planarLines = 0;
+			planarConverted = 0;
+			slantCorrector.finish(imageBuffer);
+			for (ImageListener listener : imageListeners)
+				listener.imageEnded(true);
+		}
+		copyScaled(yuv);
 		if (finish)
 			drawLines(0xff000000, 10);
 	}
 
+	private void beginPlanar() {
+		if (planarImage == null)
+			planarImage = new PlanarImage(imageBuffer.pixels.length);
+		if (planarQuality == null || planarQuality.length < imageBuffer.height)
+			planarQuality = new float[imageBuffer.height];
+		planarImage.begin(imageBuffer.width, imageBuffer.height);
+	}
+
+	// converts the rows only held by the planes so far in one go, then they go out as if they were just decoded
+	private void convertPlanar() {
+		int first = planarConverted;
+		int last = planarLines;
+		if (first >= last)
+			return;
+		planarImage.convert(imageBuffer, first, last);
+		planarConverted = last;
+		int width = imageBuffer.width;
+		for (int line = first; line < last; ++line) {
+			for (ImageListener listener : imageListeners) {
+				imageView.clear();
+				imageView.position(line * width);
+				imageView.limit(line * width + width);
+				listener.rowDecoded(imageView, line, planarQuality[line]);
+			}
+		}
+	}
+
 	private void drawLines(int color, int count) {
 		for (int i = 0; i < count; ++i) {
 			Arrays.fill(scopeBuffer.pixels, scopeBuffer.line * scopeBuffer.width, (scopeBuffer.line + 1) * scopeBuffer.width, color);
-			Arrays.fill(scopeBuffer.pixels, (scopeBuffer.line + scopeBuffer.height / 2) * scopeBuffer.width, (scopeBuffer.line + 1 + scopeBuffer.height / 2) * scopeBuffer.width, color);
-			scopeBuffer.line = (scopeBuffer.line + 1) % (scopeBuffer.height / 2);
+			scopeBuffer.advance();
 		}
 	}
 
-	private void adjustSyncPulses(int[] pulses, int shift) {
-		for (int i = 0; i < pulses.length; ++i)
-			pulses[i] -= shift;
-	}
-
 	private void shiftSamples(int shift) {
 		if (shift <= 0 || shift > currentSample)
 			return;
 		currentSample -= shift;
-		leaderBreakIndex -= shift;
-		lastSyncPulseIndex -= shift;
-		adjustSyncPulses(last5msSyncPulses, shift);
-		adjustSyncPulses(last9msSyncPulses, shift);
-		adjustSyncPulses(last20msSyncPulses, shift);
+		headerIndex -= shift;
+		headerEndIndex -= shift;
+		if (headerIndex < 0)
+			headerState = HeaderState.Idle;
+		scanLineTracker.shift(shift);
+		slantCorrector.shift(shift);
+		syncPulse5msHistory.shift(shift);
+		syncPulse9msHistory.shift(shift);
+		syncPulse20msHistory.shift(shift);
 		System.arraycopy(scanLineBuffer, shift, scanLineBuffer, 0, currentSample);
 	}
 
-	private boolean handleHeader() {
-		if (leaderBreakIndex < visCodeBitSamples + leaderToneToleranceSamples || currentSample < leaderBreakIndex + leaderToneSamples + leaderToneToleranceSamples + visCodeSamples + visCodeBitSamples)
-			return false;
-		int breakPulseIndex = leaderBreakIndex;
-		leaderBreakIndex = 0;
+	private void startHeader(int breakPulseIndex) {
+		headerState = HeaderState.Idle;
+		if (breakPulseIndex < visCodeBitSamples + leaderToneToleranceSamples)
+			return;
 		float preBreakFreq = 0;
 		for (int i = 0; i < leaderToneToleranceSamples; ++i)
 			preBreakFreq += scanLineBuffer[breakPulseIndex - visCodeBitSamples - leaderToneToleranceSamples + i];
@@ -255,76 +323,125 @@ public class Decoder {
 		float halfBandWidth = 400;
 		preBreakFreq = preBreakFreq * halfBandWidth / leaderToneToleranceSamples + centerFrequency;
 		if (Math.abs(preBreakFreq - leaderToneFrequency) > toleranceFrequency)
-			return false;
-		float leaderFreq = 0;
-		for (int i = transitionSamples; i < leaderToneSamples - leaderToneToleranceSamples; ++i)
-			leaderFreq += scanLineBuffer[breakPulseIndex + i];
-		float leaderFreqOffset = leaderFreq / (leaderToneSamples - transitionSamples - leaderToneToleranceSamples);
-		leaderFreq = leaderFreqOffset * halfBandWidth + centerFrequency;
-		if (Math.abs(leaderFreq - leaderToneFrequency) > toleranceFrequency)
-			return false;
+			return;
+		leaderFreqOffset = 0;
+		headerIndex = breakPulseIndex + transitionSamples;
+		headerEndIndex = breakPulseIndex + leaderToneSamples - leaderToneToleranceSamples;
+		headerState = HeaderState.LeaderTone;
+	}
+
+	private int decodeVisCode() {
+		float centerFrequency = 1900;
+		float toleranceFrequency = 50;
+		float halfBandWidth = 400;
 		float stopBitFrequency = 1200;
-		float pulseThresholdFrequency = (stopBitFrequency + leaderToneFrequency) / 2;
-		float pulseThresholdValue = (pulseThresholdFrequency - centerFrequency) / halfBandWidth;
-		int visBeginIndex = breakPulseIndex + leaderToneSamples - leaderToneToleranceSamples;
-		int visEndIndex = breakPulseIndex + leaderToneSamples + leaderToneToleranceSamples + visCodeBitSamples;
-		for (int i = 0; i < pulseFilter.length; ++i)
-			pulseFilter.avg(scanLineBuffer[visBeginIndex++] - leaderFreqOffset);
-		while (++visBeginIndex < visEndIndex)
-			if (pulseFilter.avg(scanLineBuffer[visBeginIndex] - leaderFreqOffset) < pulseThresholdValue)
-				break;
-		if (visBeginIndex >= visEndIndex)
-			return false;
-		visBeginIndex -= pulseFilterDelay;
-		visEndIndex = visBeginIndex + visCodeSamples;
-		Arrays.fill(visCodeBitFrequencies, 0);
-		for (int j = 0; j < 10; ++j)
-			for (int i = transitionSamples; i < visCodeBitSamples - transitionSamples; ++i)
-				visCodeBitFrequencies[j] += scanLineBuffer[visBeginIndex + visCodeBitSamples * j + i] - leaderFreqOffset;
 		for (int i = 0; i < 10; ++i)
 			visCodeBitFrequencies[i] = visCodeBitFrequencies[i] * halfBandWidth / (visCodeBitSamples - 2 * transitionSamples) + centerFrequency;
 		if (Math.abs(visCodeBitFrequencies[0] - stopBitFrequency) > toleranceFrequency || Math.abs(visCodeBitFrequencies[9] - stopBitFrequency) > toleranceFrequency)
-			return false;
+			return -1;
 		float oneBitFrequency = 1100;
 		float zeroBitFrequency = 1300;
 		for (int i = 1; i < 9; ++i)
 			if (Math.abs(visCodeBitFrequencies[i] - oneBitFrequency) > toleranceFrequency && Math.abs(visCodeBitFrequencies[i] - zeroBitFrequency) > toleranceFrequency)
-				return false;
-		int visCode = 0;
+				return -1;
+		int code = 0;
 		for (int i = 0; i < 8; ++i)
-			visCode |= (visCodeBitFrequencies[i + 1] < stopBitFrequency ? 1 : 0) << i;
+			code |= (visCodeBitFrequencies[i + 1] < stopBitFrequency ? 1 : 0) << i;
 		boolean check = true;
 		for (int i = 0; i < 8; ++i)
-			check ^= (visCode & 1 << i) != 0;
-		visCode &= 127;
+			check ^= (code & 1 << i) != 0;
 		if (!check)
-			return false;
+			return -1;
+		return code & 127;
+	}
+
+	private boolean handleHeader() {
+		float leaderToneFrequency = 1900;
+		float centerFrequency = 1900;
+		float toleranceFrequency = 50;
+		float halfBandWidth = 400;
+		float stopBitFrequency = 1200;
+		float pulseThresholdFrequency = (stopBitFrequency + leaderToneFrequency) / 2;
+		float pulseThresholdValue = (pulseThresholdFrequency - centerFrequency) / halfBandWidth;
 		float syncPorchFrequency = 1500;
 		float syncPulseFrequency = 1200;
 		float syncThresholdFrequency = (syncPulseFrequency + syncPorchFrequency) / 2;
 		float syncThresholdValue = (syncThresholdFrequency - centerFrequency) / halfBandWidth;
-		int syncPulseIndex = visEndIndex - visCodeBitSamples;
-		int syncPulseMaxIndex = visEndIndex + visCodeBitSamples;
-		for (int i = 0; i < pulseFilter.length; ++i)
-			pulseFilter.avg(scanLineBuffer[syncPulseIndex++] - leaderFreqOffset);
-		while (++syncPulseIndex < syncPulseMaxIndex)
-			if (pulseFilter.avg(scanLineBuffer[syncPulseIndex] - leaderFreqOffset) > syncThresholdValue)
-				break;
-		if (syncPulseIndex >= syncPulseMaxIndex)
-			return false;
-		syncPulseIndex -= pulseFilterDelay;
+		for (; headerState != HeaderState.Idle && headerIndex < currentSample; ++headerIndex) {
+			float value = scanLineBuffer[headerIndex];
+			switch (headerState) {
+				case LeaderTone:
+					leaderFreqOffset += value;
+					if (headerIndex + 1 < headerEndIndex)
+						break;
+					leaderFreqOffset /= leaderToneSamples - transitionSamples - leaderToneToleranceSamples;
+					float leaderFreq = leaderFreqOffset * halfBandWidth + centerFrequency;
+					if (Math.abs(leaderFreq - leaderToneFrequency) > toleranceFrequency) {
+						headerState = HeaderState.Idle;
+						break;
+					}
+					pulseFilterCount = 0;
+					headerEndIndex += 2 * leaderToneToleranceSamples + visCodeBitSamples;
+					headerState = HeaderState.StartBit;
+					break;
+				case StartBit:
+					float startBitLevel = pulseFilter.avg(value - leaderFreqOffset);
+					if (++pulseFilterCount > pulseFilter.length && startBitLevel < pulseThresholdValue) {
+						int visBeginIndex = headerIndex - pulseFilterDelay;
+						Arrays.fill(visCodeBitFrequencies, 0);
+						visCodeBitIndex = 0;
+						visCodeBitSample = transitionSamples;
+						headerIndex = visBeginIndex + transitionSamples - 1;
+						headerEndIndex = visBeginIndex + visCodeSamples + visCodeBitSamples;
+						headerState = HeaderState.VisCode;
+					} else if (headerIndex + 1 >= headerEndIndex) {
+						headerState = HeaderState.Idle;
+					}
+					break;
+				case VisCode:
+					if (visCodeBitSample >= transitionSamples && visCodeBitSample < visCodeBitSamples - transitionSamples)
+						visCodeBitFrequencies[visCodeBitIndex] += value - leaderFreqOffset;
+					if (visCodeBitIndex == 9) {
+						if (visCodeBitSample == 0)
+							pulseFilterCount = 0;
+						pulseFilter.avg(value - leaderFreqOffset);
+						++pulseFilterCount;
+						if (visCodeBitSample == visCodeBitSamples - transitionSamples - 1) {
+							visCode = decodeVisCode();
+							headerState = visCode < 0 ? HeaderState.Idle : HeaderState.SyncPulse;
+							break;
+						}
+					}
+					if (++visCodeBitSample >= visCodeBitSamples) {
+						visCodeBitSample = 0;
+						++visCodeBitIndex;
+					}
+					break;
+				case SyncPulse:
+					float syncPulseLevel = pulseFilter.avg(value - leaderFreqOffset);
+					if (++pulseFilterCount > pulseFilter.length && syncPulseLevel > syncThresholdValue) {
+						headerState = HeaderState.Idle;
+						return startImage(headerIndex - pulseFilterDelay);
+					}
+					if (headerIndex + 1 >= headerEndIndex)
+						headerState = HeaderState.Idle;
+					break;
+				default:
+					headerState = HeaderState.Idle;
+			}
+		}
+		return false;
+	}
+
+	private boolean startImage(int syncPulseIndex) {
 		Mode mode;
-		int[] pulses;
-		int[] lines;
+		SyncPulseHistory history;
 		if ((mode = findMode(syncPulse5msModes, visCode)) != null) {
-			pulses = last5msSyncPulses;
-			lines = last5msScanLines;
+			history = syncPulse5msHistory;
 		} else if ((mode = findMode(syncPulse9msModes, visCode)) != null) {
-			pulses = last9msSyncPulses;
-			lines = last9msScanLines;
+			history = syncPulse9msHistory;
 		} else if ((mode = findMode(syncPulse20msModes, visCode)) != null) {
-			pulses = last20msSyncPulses;
-			lines = last20msScanLines;
+			history = syncPulse20msHistory;
 		} else {
 			if (!lockMode)
 				drawLines(0xffff0000, 8);
@@ -332,116 +449,355 @@ public class Decoder {
 		}
 		if (lockMode && mode != currentMode)
 			return false;
-		mode.reset();
+		abortImage();
+		pixelBuffer.line = -1;
 		imageBuffer.width = mode.getWidth();
 		imageBuffer.height = mode.getHeight();
 		imageBuffer.line = 0;
+		for (ImageListener listener : imageListeners)
+			listener.imageStarted(mode, imageBuffer.width, imageBuffer.height, visCode);
 		currentMode = mode;
-		lastSyncPulseIndex = syncPulseIndex + mode.getFirstSyncPulseIndex();
+		int firstSyncPulseIndex = syncPulseIndex + mode.getFirstSyncPulseIndex();
 		currentScanLineSamples = mode.getScanLineSamples();
+		scanLineTracker.reset(firstSyncPulseIndex, currentScanLineSamples);
 		lastFrequencyOffset = leaderFreqOffset;
-		int oldestSyncPulseIndex = lastSyncPulseIndex - (pulses.length - 1) * currentScanLineSamples;
+		int oldestSyncPulseIndex = firstSyncPulseIndex - history.length * currentScanLineSamples;
 		if (mode.getFirstSyncPulseIndex() > 0)
 			oldestSyncPulseIndex -= currentScanLineSamples;
-		for (int i = 0; i < pulses.length; ++i)
-			pulses[i] = oldestSyncPulseIndex + i * currentScanLineSamples;
-		Arrays.fill(lines, currentScanLineSamples);
-		shiftSamples(lastSyncPulseIndex + mode.getBegin());
+		history.reset(oldestSyncPulseIndex, currentScanLineSamples);
+		shiftSamples(firstSyncPulseIndex + mode.getBegin() - syncPulseToleranceSamples);
+		slantCorrector.start(mode, scanLineBuffer, currentSample);
+		slantCorrector.addPulse((int) Math.round(scanLineTracker.phase()), currentScanLineSamples, lastFrequencyOffset);
 		drawLines(0xff00ff00, 8);
 		drawLines(0xff000000, 10);
 		return true;
 	}
 
-	private boolean processSyncPulse(ArrayList<Mode> modes, float[] freqOffs, int[] pulses, int[] lines, int index) {
-		for (int i = 1; i < pulses.length; ++i)
-			pulses[i - 1] = pulses[i];
-		pulses[pulses.length - 1] = index;
-		for (int i = 1; i < lines.length; ++i)
-			lines[i - 1] = lines[i];
-		lines[lines.length - 1] = pulses[pulses.length - 1] - pulses[pulses.length - 2];
-		for (int i = 1; i < freqOffs.length; ++i)
-			freqOffs[i - 1] = freqOffs[i];
-		freqOffs[pulses.length - 1] = demodulator.frequencyOffset;
-		if (lines[0] == 0)
+	private boolean processSyncPulse(List<Mode> modes, SyncPulseHistory history, int index, float pulseFrequencyOffset) {
+		history.push(index, pulseFrequencyOffset);
+		if (history.line(0) == 0)
 			return false;
-		double mean = scanLineMean(lines);
-		int scanLineSamples = (int) Math.round(mean);
+		int scanLineSamples = (int) Math.round(history.lineMean());
 		if (scanLineSamples < scanLineMinSamples || scanLineSamples > scratchBuffer.length)
 			return false;
-		if (scanLineStdDev(lines, mean) > scanLineToleranceSamples)
+		if (history.lineStdDev() > scanLineToleranceSamples)
 			return false;
 		boolean pictureChanged = false;
 		if (lockMode || imageBuffer.line >= 0 && imageBuffer.line < imageBuffer.height) {
 			if (currentMode != rawMode && Math.abs(scanLineSamples - currentMode.getScanLineSamples()) > scanLineToleranceSamples)
 				return false;
+			if (scanLineTracker.update(index, syncPulseToleranceSamples)) {
+				slantCorrector.addPulse(index, scanLineTracker.period(), pulseFrequencyOffset);
+			} else {
+				if (!scanLineTracker.lost())
+					return false;
+				scanLineTracker.reset(index, history.lineMean());
+			}
 		} else {
 			Mode prevMode = currentMode;
 			currentMode = detectMode(modes, scanLineSamples);
+			boolean inPhase = scanLineTracker.update(index, syncPulseToleranceSamples);
 			pictureChanged = currentMode != prevMode
 				|| Math.abs(currentScanLineSamples - scanLineSamples) > scanLineToleranceSamples
-				|| Math.abs(lastSyncPulseIndex + scanLineSamples - pulses[pulses.length - 1]) > syncPulseToleranceSamples;
+				|| scanLineTracker.lost();
+			if (!pictureChanged && !inPhase)
+				return false;
 		}
 		if (pictureChanged) {
+			scanLineTracker.reset(index, history.lineMean());
 			drawLines(0xff000000, 10);
 			drawLines(0xff00ffff, 8);
 			drawLines(0xff000000, 10);
 		}
-		float frequencyOffset = (float) frequencyOffsetMean(freqOffs);
-		if (pulses[0] >= scanLineSamples && pictureChanged) {
-			int endPulse = pulses[0];
+		float frequencyOffset = (float) history.frequencyOffsetMean();
+		if (history.pulse(0) >= scanLineSamples && pictureChanged) {
+			int endPulse = history.pulse(0);
 			int extrapolate = endPulse / scanLineSamples;
 			int firstPulse = endPulse - extrapolate * scanLineSamples;
 			for (int pulseIndex = firstPulse; pulseIndex < endPulse; pulseIndex += scanLineSamples)
-				copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, pulseIndex, scanLineSamples, frequencyOffset));
+				copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, previewWidth, yuvLines(), pulseIndex, scanLineSamples, frequencyOffset));
+		}
+		if (pictureChanged) {
+			for (int i = 0; i < history.length; ++i)
+				copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, previewWidth, yuvLines(), history.pulse(i), history.line(i), frequencyOffset));
+		} else {
+			copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, previewWidth, yuvLines(), scanLineTracker.previous(), scanLineTracker.period(), frequencyOffset));
 		}
-		for (int i = pictureChanged ? 0 : lines.length - 1; i < lines.length; ++i)
-			copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, pulses[i], lines[i], frequencyOffset));
-		lastSyncPulseIndex = pulses[pulses.length - 1];
 		currentScanLineSamples = scanLineSamples;
 		lastFrequencyOffset = frequencyOffset;
-		shiftSamples(lastSyncPulseIndex + currentMode.getBegin());
+		shiftSamples((int) Math.floor(scanLineTracker.phase()) + currentMode.getBegin() - syncPulseToleranceSamples);
 		return true;
 	}
 
 	public boolean process(float[] recordBuffer, int channelSelect) {
+		if (demodulator == null) {
+			demodulator = new Demodulator(sampleRate);
+			demodulator.histogram = frequencyHistogram;
+		}
 		boolean syncPulseDetected = demodulator.process(recordBuffer, channelSelect);
-		int syncPulseIndex = currentSample + demodulator.syncPulseOffset;
 		int channels = channelSelect > 0 ? 2 : 1;
-		for (int j = 0; j < recordBuffer.length / channels; ++j) {
-			scanLineBuffer[currentSample++] = recordBuffer[j];
+		return decode(recordBuffer, recordBuffer.length / channels, syncPulseDetected ? demodulator.syncPulseWidth : null, demodulator.syncPulseOffset, demodulator.frequencyOffset);
+	}
+
+	// takes the output of a Demodulator, which can be shared by several decoders as the buffer is only read
+	public boolean decode(float[] demodulated, int length, Demodulator.SyncPulseWidth syncPulseWidth, int syncPulseOffset, float frequencyOffset) {
+		int syncPulseIndex = currentSample + syncPulseOffset;
+		slantCorrector.write(demodulated, 0, length);
+		for (int j = 0; j < length; ++j) {
+			scanLineBuffer[currentSample++] = demodulated[j];
 			if (currentSample >= scanLineBuffer.length) {
 				shiftSamples(currentScanLineSamples);
 				syncPulseIndex -= currentScanLineSamples;
 			}
 		}
-		if (syncPulseDetected) {
-			switch (demodulator.syncPulseWidth) {
+		if (syncPulseWidth != null) {
+			switch (syncPulseWidth) {
 				case FiveMilliSeconds:
-					return processSyncPulse(syncPulse5msModes, last5msFrequencyOffsets, last5msSyncPulses, last5msScanLines, syncPulseIndex);
+					return processSyncPulse(syncPulse5msModes, syncPulse5msHistory, syncPulseIndex, frequencyOffset);
 				case NineMilliSeconds:
-					leaderBreakIndex = syncPulseIndex;
-					return processSyncPulse(syncPulse9msModes, last9msFrequencyOffsets, last9msSyncPulses, last9msScanLines, syncPulseIndex);
+					startHeader(syncPulseIndex);
+					return processSyncPulse(syncPulse9msModes, syncPulse9msHistory, syncPulseIndex, frequencyOffset);
 				case TwentyMilliSeconds:
-					leaderBreakIndex = syncPulseIndex;
-					return processSyncPulse(syncPulse20msModes, last20msFrequencyOffsets, last20msSyncPulses, last20msScanLines, syncPulseIndex);
+					startHeader(syncPulseIndex);
+					return processSyncPulse(syncPulse20msModes, syncPulse20msHistory, syncPulseIndex, frequencyOffset);
 				default:
 					return false;
 			}
 		}
 		if (handleHeader())
 			return true;
-		if (currentSample > lastSyncPulseIndex + (currentScanLineSamples * 5) / 4) {
-			copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, lastSyncPulseIndex, currentScanLineSamples, lastFrequencyOffset));
-			lastSyncPulseIndex += currentScanLineSamples;
+		if (currentSample > scanLineTracker.phase() + scanLineTracker.period() * 5 / 4) {
+			copyLines(currentMode.decodeScanLine(pixelBuffer, scratchBuffer, scanLineBuffer, scopeBuffer.width, previewWidth, yuvLines(), scanLineTracker.phase(), scanLineTracker.period(), lastFrequencyOffset));
+			scanLineTracker.advance();
 			return true;
 		}
 		return false;
 	}
 
+	// bytes held by the buffers of this decoder, modes are shared and not counted
+	public long memoryUsage() {
+		long bytes = 4L * (scanLineBuffer.length + scratchBuffer.length + pixelBuffer.pixels.length);
+		bytes += 3 * 4L * (3 * syncPulse5msHistory.length + 2);
+		if (planarImage != null)
+			bytes += planarImage.memoryUsage() + 4L * planarQuality.length;
+		if (scopeScratch != null)
+			bytes += 4L * scopeScratch.length;
+		return bytes + slantCorrector.memoryUsage();
+	}
+
+	private void abortImage() {
+		boolean receiving = imageBuffer.line >= 0 && imageBuffer.line < imageBuffer.height;
+		if (receiving)
+			convertPlanar();
+		planarLines = 0;
+		planarConverted = 0;
+		imageBuffer.line = -1;
+		slantCorrector.stop();
+		if (receiving)
+			for (ImageListener listener : imageListeners)
+				listener.imageEnded(false);
+	}
+
+	public void addImageListener(ImageListener listener) {
+		imageListeners.add(listener);
+	}
+
+	public void removeImageListener(ImageListener listener) {
+		imageListeners.remove(listener);
+	}
+
+	// filled with the histogram of the demodulated frequencies of every processed block
+	public void setFrequencyHistogram(int[] histogram) {
+		frequencyHistogram = histogram;
+		if (demodulator != null)
+			demodulator.histogram = histogram;
+	}
+
+	public void setSlantCorrection(SlantCorrector.Callback callback) {
+		slantCorrector.setCallback(callback);
+	}
+
+	// decodes lines no wider than the given width, stretched back to the width of the image, or at full resolution with zero
+	// the full resolution then only comes from the slant corrector, which gets to record no more than 16 MB of samples
+	public void setPreview(int width) {
+		previewWidth = width;
+		slantCorrector.setLimit(width > 0 ? 8 << 20 : Integer.MAX_VALUE);
+	}
+
+	// keeps lines of YUV modes in planes and converts them in bands of rows, off by default
+	public void setPlanar(boolean planar) {
+		abortImage();
+		this.planar = planar;
+	}
+
+	// brings the image buffer and the listeners up to the current line, for showing an image still being received
+	public void updateImage() {
+		if (imageBuffer.line >= 0 && imageBuffer.line < imageBuffer.height)
+			convertPlanar();
+	}
+
+	// everything needed to carry on with the current image, including the samples not yet decoded, but not the slant recording
+	public void save(DataOutput out) throws IOException {
+		out.writeInt(Snapshot.MAGIC);
+		out.writeInt(Snapshot.VERSION);
+		out.writeInt(sampleRate);
+		out.writeUTF(currentMode.getName());
+		out.writeBoolean(lockMode);
+		out.writeInt(currentScanLineSamples);
+		out.writeFloat(lastFrequencyOffset);
+		out.writeInt(scopeRowPhase);
+		out.writeBoolean(demodulator != null);
+		if (demodulator != null)
+			demodulator.save(out);
+		out.writeInt(currentSample);
+		Snapshot.writeFloats(out, scanLineBuffer, 0, currentSample);
+		out.writeInt(headerState.ordinal());
+		out.writeInt(headerIndex);
+		out.writeInt(headerEndIndex);
+		out.writeInt(visCodeBitIndex);
+		out.writeInt(visCodeBitSample);
+		out.writeInt(visCode);
+		out.writeInt(pulseFilterCount);
+		out.writeFloat(leaderFreqOffset);
+		for (float frequency : visCodeBitFrequencies)
+			out.writeFloat(frequency);
+		pulseFilter.save(out);
+		scanLineTracker.save(out);
+		syncPulse5msHistory.save(out);
+		syncPulse9msHistory.save(out);
+		syncPulse20msHistory.save(out);
+		// modes keep no state of their own, only Robot 36 leaves the even line in here
+		out.writeInt(pixelBuffer.width);
+		out.writeInt(pixelBuffer.height);
+		out.writeInt(pixelBuffer.line);
+		Snapshot.writePixels(out, pixelBuffer.pixels, 0, pixelBuffer.width * pixelBuffer.height);
+		out.writeInt(imageBuffer.width);
+		out.writeInt(imageBuffer.height);
+		out.writeInt(imageBuffer.line);
+		if (imageBuffer.line >= 0 && imageBuffer.line < imageBuffer.height) {
+			convertPlanar();
+			out.writeInt(imageBuffer.line);
+			Snapshot.writePixels(out, imageBuffer.pixels, 0, imageBuffer.line * imageBuffer.width);
+		}
+		slantCorrector.save(out);
+	}
+
+	// takes a snapshot of a decoder at any rate, sample positions get scaled and samples resampled as needed
+	public void restore(DataInput in) throws IOException {
+		if (in.readInt() != Snapshot.MAGIC || in.readInt() != Snapshot.VERSION)
+			throw new IOException("not a decoder snapshot");
+		abortImage();
+		double scale = sampleRate / (double) in.readInt();
+		String name = in.readUTF();
+		Mode mode = rawMode.getName().equals(name) ? rawMode : findMode(syncPulse5msModes, name);
+		if (mode == null)
+			mode = findMode(syncPulse9msModes, name);
+		if (mode == null)
+			mode = findMode(syncPulse20msModes, name);
+		if (mode == null)
+			throw new IOException("unknown mode");
+		currentMode = mode;
+		lockMode = in.readBoolean();
+		currentScanLineSamples = Snapshot.scale(in.readInt(), scale);
+		if (currentScanLineSamples <= 0)
+			throw new IOException("bad scan line length");
+		lastFrequencyOffset = in.readFloat();
+		scopeRowPhase = in.readInt();
+		if (in.readBoolean()) {
+			if (demodulator == null) {
+				demodulator = new Demodulator(sampleRate);
+				demodulator.histogram = frequencyHistogram;
+			}
+			demodulator.restore(in);
+		}
+		int samples = in.readInt();
+		if (samples < 0 || Snapshot.scale(samples, scale) >= scanLineBuffer.length)
+			throw new IOException("too many samples");
+		float[] buffered = new float[samples];
+		Snapshot.readFloats(in, buffered, 0, samples);
+		currentSample = 0;
+		Snapshot.resample(buffered, samples, scale, (buffer, offset, length) -> {
+			System.arraycopy(buffer, offset, scanLineBuffer, currentSample, length);
+			currentSample += length;
+		});
+		int state = in.readInt();
+		HeaderState[] states = HeaderState.values();
+		headerState = state >= 0 && state < states.length ? states[state] : HeaderState.Idle;
+		headerIndex = Snapshot.scale(in.readInt(), scale);
+		headerEndIndex = Snapshot.scale(in.readInt(), scale);
+		visCodeBitIndex = in.readInt();
+		if (visCodeBitIndex < 0 || visCodeBitIndex >= visCodeBitFrequencies.length)
+			throw new IOException("bad code bit");
+		// the header gets read on from its index, up to the samples restored
+		if (headerState != HeaderState.Idle && (headerIndex < 0 || headerIndex > currentSample || headerEndIndex < 0 || headerEndIndex > scanLineBuffer.length))
+			throw new IOException("header out of range");
+		visCodeBitSample = Snapshot.scale(in.readInt(), scale);
+		visCode = in.readInt();
+		pulseFilterCount = in.readInt();
+		// the leader tone and the bits of the code are sums over samples until they are complete
+		leaderFreqOffset = in.readFloat();
+		if (headerState == HeaderState.LeaderTone)
+			leaderFreqOffset *= (float) scale;
+		for (int i = 0; i < visCodeBitFrequencies.length; ++i)
+			visCodeBitFrequencies[i] = (float) scale * in.readFloat();
+		pulseFilter.restore(in);
+		// at another rate the pulse filter starts out empty and has to fill up again
+		if (scale != 1)
+			pulseFilterCount = 0;
+		scanLineTracker.restore(in, scale);
+		syncPulse5msHistory.restore(in, scale);
+		syncPulse9msHistory.restore(in, scale);
+		syncPulse20msHistory.restore(in, scale);
+		int width = in.readInt();
+		int height = in.readInt();
+		if (width < 0 || height < 0 || (long) width * height > pixelBuffer.pixels.length)
+			throw new IOException("line too large");
+		int line = in.readInt();
+		if (line < -1 || line > height || scopeRowPhase < 0 || scopeRowPhase > width)
+			throw new IOException("line out of range");
+		pixelBuffer.width = width;
+		pixelBuffer.height = height;
+		pixelBuffer.line = line;
+		Snapshot.readPixels(in, pixelBuffer.pixels, 0, width * height);
+		width = in.readInt();
+		height = in.readInt();
+		line = in.readInt();
+		if (width < 0 || height < 0 || (long) width * height > imageBuffer.pixels.length)
+			throw new IOException("image too large");
+		if (line < -1 || line > height)
+			throw new IOException("line out of range");
+		imageBuffer.width = width;
+		imageBuffer.height = height;
+		if (line >= 0 && line < height) {
+			int rows = in.readInt();
+			if (rows < 0 || rows > line)
+				throw new IOException("bad row count");
+			Snapshot.readPixels(in, imageBuffer.pixels, 0, rows * width);
+			// the planes pick up where the image buffer ends
+			if (yuvLines() && rows > 0) {
+				beginPlanar();
+				planarLines = rows;
+				planarConverted = rows;
+			}
+			// listeners get the image again from the start, as if nothing happened
+			for (ImageListener listener : imageListeners) {
+				listener.imageStarted(currentMode, width, height, visCode);
+				for (int row = 0; row < rows; ++row) {
+					imageView.clear();
+					imageView.position(row * width);
+					imageView.limit(row * width + width);
+					listener.rowDecoded(imageView, row, 1);
+				}
+			}
+		}
+		imageBuffer.line = line;
+		slantCorrector.restore(in, currentMode);
+	}
+
 	public void setMode(String name) {
 		if (rawMode.getName().equals(name)) {
 			lockMode = true;
-			imageBuffer.line = -1;
+			abortImage();
 			currentMode = rawMode;
 			return;
 		}
@@ -456,9 +812,10 @@ public class Decoder {
 		}
 		if (mode != null) {
 			lockMode = true;
-			imageBuffer.line = -1;
+			abortImage();
 			currentMode = mode;
 			currentScanLineSamples = mode.getScanLineSamples();
+			scanLineTracker.reset(scanLineTracker.phase(), currentScanLineSamples);
 			return;
 		}
 		lockMode = false;
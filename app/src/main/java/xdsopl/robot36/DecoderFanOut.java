@@ -0,0 +1,97 @@
+/*
+Shared demodulator fan-out
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+public class DecoderFanOut {
+	private static final String RAW_NAME = "Raw";
+	private final Demodulator demodulator;
+	private final ExecutorService executor;
+	private final ArrayList<Decoder> decoders;
+	private final ArrayList<Callable<Boolean>> tasks;
+	private final int sampleRate;
+	private float[] demodulated;
+	private int length;
+	private Demodulator.SyncPulseWidth syncPulseWidth;
+	private int syncPulseOffset;
+	private float frequencyOffset;
+	private long demodulateNanos;
+	private long decodeNanos;
+
+	// without an executor the back ends run one after another on the calling thread
+	DecoderFanOut(int sampleRate, ExecutorService executor) {
+		this.sampleRate = sampleRate;
+		this.executor = executor;
+		demodulator = new Demodulator(sampleRate);
+		decoders = new ArrayList<>();
+		tasks = new ArrayList<>();
+	}
+
+	// each back end owns its buffers and stays locked to the given mode, there can be no more than fit in the mask of process
+	public Decoder addDecoder(PixelBuffer scopeBuffer, PixelBuffer imageBuffer, String modeName) {
+		if (decoders.size() >= Long.SIZE)
+			throw new IllegalStateException("more than " + Long.SIZE + " back ends");
+		// an unknown name would silently leave the back end in auto mode
+		if (!RAW_NAME.equals(modeName) && ModeTable.get(sampleRate).find(modeName) == null)
+			throw new IllegalArgumentException("unknown mode " + modeName);
+		Decoder decoder = new Decoder(scopeBuffer, imageBuffer, RAW_NAME, sampleRate);
+		decoder.setMode(modeName);
+		decoders.add(decoder);
+		tasks.add(() -> decoder.decode(demodulated, length, syncPulseWidth, syncPulseOffset, frequencyOffset));
+		return decoder;
+	}
+
+	public List<Decoder> decoders() {
+		return decoders;
+	}
+
+	// the demodulator overwrites the record buffer in place, all back ends then read the same samples
+	// returns a bit mask of the back ends that produced new lines
+	public long process(float[] recordBuffer, int channelSelect) throws InterruptedException {
+		long begin = System.nanoTime();
+		boolean syncPulseDetected = demodulator.process(recordBuffer, channelSelect);
+		long middle = System.nanoTime();
+		demodulateNanos += middle - begin;
+		demodulated = recordBuffer;
+		length = recordBuffer.length / (channelSelect > 0 ? 2 : 1);
+		syncPulseWidth = syncPulseDetected ? demodulator.syncPulseWidth : null;
+		syncPulseOffset = demodulator.syncPulseOffset;
+		frequencyOffset = demodulator.frequencyOffset;
+		long mask = 0;
+		if (executor == null || decoders.size() < 2) {
+			for (int i = 0; i < decoders.size(); ++i)
+				if (decoders.get(i).decode(demodulated, length, syncPulseWidth, syncPulseOffset, frequencyOffset))
+					mask |= 1L << i;
+		} else {
+			List<Future<Boolean>> results = executor.invokeAll(tasks);
+			for (int i = 0; i < results.size(); ++i) {
+				try {
+					if (results.get(i).get())
+						mask |= 1L << i;
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		decodeNanos += System.nanoTime() - middle;
+		return mask;
+	}
+
+	public double demodulateSeconds() {
+		return demodulateNanos / 1e9;
+	}
+
+	public double decodeSeconds() {
+		return decodeNanos / 1e9;
+	}
+}
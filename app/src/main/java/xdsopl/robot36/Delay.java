@@ -6,6 +6,10 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Delay {
 	public final int length;
 	private final float[] buf;
@@ -24,4 +28,23 @@ public class Delay {
 			pos = 0;
 		return tmp;
 	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeInt(length);
+		out.writeInt(pos);
+		Snapshot.writeFloats(out, buf, 0, length);
+	}
+
+	void restore(DataInput in) throws IOException {
+		int count = in.readInt();
+		int position = in.readInt();
+		if (count != length) {
+			Snapshot.skipFloats(in, count);
+			return;
+		}
+		if (position < 0 || position >= length)
+			throw new IOException("position out of range");
+		Snapshot.readFloats(in, buf, 0, length);
+		pos = position;
+	}
 }
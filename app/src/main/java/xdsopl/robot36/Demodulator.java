@@ -6,6 +6,11 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
 public class Demodulator {
 	private final SimpleMovingAverage syncPulseFilter;
 	private final ComplexConvolution baseBandLowPass;
@@ -20,6 +25,7 @@ public class Demodulator {
 	private final int syncPulse9msMaxSamples;
 	private final int syncPulse20msMaxSamples;
 	private final int syncPulseFilterDelay;
+	private final int sampleRate;
 	private int syncPulseCounter;
 	private Complex baseBand;
 
@@ -32,8 +38,11 @@ public class Demodulator {
 	public SyncPulseWidth syncPulseWidth;
 	public int syncPulseOffset;
 	public float frequencyOffset;
+	// when set, counts the demodulated values of each block, from -2.5 to 1.5, in equally wide bins
+	public int[] histogram;
 
 	Demodulator(int sampleRate) {
+		this.sampleRate = sampleRate;
 		double blackFrequency = 1500;
 		double whiteFrequency = 2300;
 		double scanLineBandwidth = whiteFrequency - blackFrequency;
@@ -80,6 +89,12 @@ public class Demodulator {
 	public boolean process(float[] buffer, int channelSelect) {
 		boolean syncPulseDetected = false;
 		int channels = channelSelect > 0 ? 2 : 1;
+		int[] histogram = this.histogram;
+		int bins = 0;
+		if (histogram != null) {
+			Arrays.fill(histogram, 0);
+			bins = histogram.length;
+		}
 		for (int i = 0; i < buffer.length / channels; ++i) {
 			switch (channelSelect) {
 				case 1:
@@ -102,6 +117,11 @@ public class Demodulator {
 			float syncPulseValue = syncPulseFilter.avg(frequencyValue);
 			float syncPulseDelayedValue = syncPulseValueDelay.push(syncPulseValue);
 			buffer[i] = frequencyValue;
+			if (bins > 0) {
+				int bin = Math.round((frequencyValue + 2.5f) * 0.25f * bins);
+				if (bin >= 0 && bin < bins)
+					++histogram[bin];
+			}
 			if (!syncPulseTrigger.latch(syncPulseValue)) {
 				++syncPulseCounter;
 			} else if (syncPulseCounter < syncPulse5msMinSamples || syncPulseCounter > syncPulse20msMaxSamples || Math.abs(syncPulseDelayedValue - syncPulseFrequencyValue) > syncPulseFrequencyTolerance) {
@@ -121,4 +141,27 @@ public class Demodulator {
 		}
 		return syncPulseDetected;
 	}
+
+	public void save(DataOutput out) throws IOException {
+		out.writeInt(sampleRate);
+		out.writeInt(syncPulseCounter);
+		syncPulseTrigger.save(out);
+		baseBandOscillator.save(out);
+		frequencyModulation.save(out);
+		baseBandLowPass.save(out);
+		syncPulseFilter.save(out);
+		syncPulseValueDelay.save(out);
+	}
+
+	// the filters only take back their history when saved at the same rate, otherwise they settle within a few milliseconds
+	public void restore(DataInput in) throws IOException {
+		double scale = sampleRate / (double) in.readInt();
+		syncPulseCounter = Snapshot.scale(in.readInt(), scale);
+		syncPulseTrigger.restore(in);
+		baseBandOscillator.restore(in);
+		frequencyModulation.restore(in);
+		baseBandLowPass.restore(in);
+		syncPulseFilter.restore(in);
+		syncPulseValueDelay.restore(in);
+	}
 }
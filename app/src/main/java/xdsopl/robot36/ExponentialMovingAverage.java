@@ -27,9 +27,13 @@ public class ExponentialMovingAverage {
 		alpha(Math.pow(alpha, 1.0 / order));
 	}
 
-	public void cutoff(double freq, double rate, int order) {
+	public static float cutoffAlpha(double freq, double rate, int order) {
 		double x = Math.cos(2 * Math.PI * freq / rate);
-		alpha(x - 1 + Math.sqrt(x * (x - 4) + 3), order);
+		return (float) Math.pow(x - 1 + Math.sqrt(x * (x - 4) + 3), 1.0 / order);
+	}
+
+	public void cutoff(double freq, double rate, int order) {
+		alpha(cutoffAlpha(freq, rate, order));
 	}
 
 	public void cutoff(double freq, double rate) {
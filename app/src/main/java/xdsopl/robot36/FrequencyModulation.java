@@ -6,6 +6,10 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class FrequencyModulation {
 	private float prev;
 	private final float scale;
@@ -28,4 +32,12 @@ public class FrequencyModulation {
 		prev = phase;
 		return scale * delta;
 	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeFloat(prev);
+	}
+
+	void restore(DataInput in) throws IOException {
+		prev = in.readFloat();
+	}
 }
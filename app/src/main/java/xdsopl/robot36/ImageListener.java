@@ -0,0 +1,18 @@
+/*
+Decoded image listener
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.nio.IntBuffer;
+
+public interface ImageListener {
+	void imageStarted(Mode mode, int width, int height, int visCode);
+
+	// row is a read-only view into the image and only valid during the call
+	void rowDecoded(IntBuffer row, int line, float quality);
+
+	void imageEnded(boolean complete);
+}
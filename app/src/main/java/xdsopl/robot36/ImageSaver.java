@@ -0,0 +1,120 @@
+/*
+Background image saver
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ImageSaver {
+	public interface Writer {
+		void write(PixelBuffer image);
+	}
+
+	private final Writer writer;
+	private final ThreadPoolExecutor executor;
+	private final PixelBufferPool pool;
+	private final AtomicInteger dropped;
+	private final AtomicInteger saved;
+	private final AtomicLong lastLatency;
+	private final AtomicLong totalLatency;
+
+	private class Task implements Runnable {
+		final PixelBuffer image;
+		final long submitted;
+
+		Task(PixelBuffer image) {
+			this.image = image;
+			this.submitted = System.nanoTime();
+		}
+
+		@Override
+		public void run() {
+			try {
+				writer.write(image);
+			} finally {
+				long latency = System.nanoTime() - submitted;
+				lastLatency.set(latency);
+				totalLatency.addAndGet(latency);
+				saved.incrementAndGet();
+				pool.release(image);
+			}
+		}
+	}
+
+	ImageSaver(int capacity, Writer writer) {
+		this.writer = writer;
+		pool = new PixelBufferPool(capacity + 1);
+		dropped = new AtomicInteger();
+		saved = new AtomicInteger();
+		lastLatency = new AtomicLong();
+		totalLatency = new AtomicLong();
+		// when the queue is full we drop the newest image instead of blocking the decoder
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity), runnable -> {
+			Thread thread = new Thread(runnable, "ImageSaver");
+			thread.setDaemon(true);
+			return thread;
+		}, (runnable, ignore) -> {
+			dropped.incrementAndGet();
+			pool.release(((Task) runnable).image);
+		});
+	}
+
+	public void save(int[] pixels, int offset, int stride, int width, int height) {
+		PixelBuffer image = pool.obtain(width, height);
+		image.line = height;
+		for (int row = 0; row < height; ++row)
+			System.arraycopy(pixels, offset + row * stride, image.pixels, row * width, width);
+		executor.execute(new Task(image));
+	}
+
+	public void save(PixelBuffer image) {
+		save(image.pixels, 0, image.width, image.width, image.height);
+	}
+
+	// for ring buffers, starts at the given row and wraps around to the top
+	public void save(PixelBuffer ring, int firstRow) {
+		PixelBuffer image = pool.obtain(ring.width, ring.height);
+		image.line = image.height;
+		int rows = ring.height - firstRow;
+		System.arraycopy(ring.pixels, firstRow * ring.width, image.pixels, 0, rows * ring.width);
+		System.arraycopy(ring.pixels, 0, image.pixels, rows * ring.width, firstRow * ring.width);
+		executor.execute(new Task(image));
+	}
+
+	// images already queued still get written, later ones are dropped
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public int allocations() {
+		return pool.allocations();
+	}
+
+	public int pending() {
+		return executor.getQueue().size();
+	}
+
+	public int dropped() {
+		return dropped.get();
+	}
+
+	public int saved() {
+		return saved.get();
+	}
+
+	public double lastLatencyMillis() {
+		return lastLatency.get() / 1e6;
+	}
+
+	public double averageLatencyMillis() {
+		int count = saved.get();
+		return count > 0 ? totalLatency.get() / 1e6 / count : 0;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+Table driven interpolator
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+public final class Interpolator {
+	public static final Interpolator LINEAR = new Interpolator(2, 64);
+	public static final Interpolator CUBIC = new Interpolator(4, 256);
+
+	public final int taps;
+	private final int phases;
+	private final float[] table;
+
+	private Interpolator(int taps, int phases) {
+		this.taps = taps;
+		this.phases = phases;
+		this.table = new float[(phases + 1) * taps];
+		for (int phase = 0; phase <= phases; ++phase) {
+			double t = phase / (double) phases;
+			int row = phase * taps;
+			if (taps == 2) {
+				table[row] = (float) (1 - t);
+				table[row + 1] = (float) t;
+			} else {
+				// Catmull-Rom spline
+				double t2 = t * t, t3 = t2 * t;
+				table[row] = (float) ((-t3 + 2 * t2 - t) / 2);
+				table[row + 1] = (float) ((3 * t3 - 5 * t2 + 2) / 2);
+				table[row + 2] = (float) ((-3 * t3 + 4 * t2 + t) / 2);
+				table[row + 3] = (float) ((t3 - t2) / 2);
+			}
+		}
+	}
+
+	public int before() {
+		return taps / 2 - 1;
+	}
+
+	public int after() {
+		return taps / 2;
+	}
+
+	public float sample(float[] buffer, float position) {
+		int index = (int) position;
+		int row = Math.round((position - index) * phases) * taps;
+		index -= before();
+		float sum = 0;
+		for (int i = 0; i < taps; ++i)
+			sum += table[row + i] * buffer[index + i];
+		return sum;
+	}
+}
@@ -7,6 +7,7 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 package xdsopl.robot36;
 
 import android.Manifest;
+import android.app.ActivityManager;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -26,6 +27,7 @@ import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.text.Html;
 import android.text.method.LinkMovementMethod;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -49,32 +51,64 @@ import androidx.core.view.MenuItemCompat;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MainActivity extends AppCompatActivity {
 
+	private static final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "DecoderSnapshot");
+		thread.setDaemon(true);
+		return thread;
+	});
 	private Bitmap scopeBitmap;
 	private PixelBuffer scopeBuffer;
-	private ImageView scopeView;
+	private PixelBufferExchange scopeExchange;
+	private RingBitmapView scopeView;
 	private Bitmap freqPlotBitmap;
 	private PixelBuffer freqPlotBuffer;
-	private ImageView freqPlotView;
+	private PixelBufferExchange freqPlotExchange;
+	private PixelBuffer freqPlotPixels;
+	private int[] freqPlotHistogram;
+	private volatile int freqPlotFactor;
+	private RingBitmapView freqPlotView;
+	private Bitmap waterfallBitmap;
+	private PixelBuffer waterfallBuffer;
+	private PixelBufferExchange waterfallExchange;
+	private RingBitmapView waterfallView;
+	private Waterfall waterfall;
 	private Bitmap peakMeterBitmap;
 	private PixelBuffer peakMeterBuffer;
 	private ImageView peakMeterView;
 	private PixelBuffer imageBuffer;
+	private ImageSaver imageSaver;
+	private PngEncoder pngEncoder;
+	private RawImage rawImage;
+	private RawImageConverter rawImageConverter;
+	private MappedImage mappedImage;
 	private short[] shortBuffer;
 	private float[] recordBuffer;
 	private AudioRecord audioRecord;
+	private byte[] restoredDecoder;
 	private Decoder decoder;
+	private Choreographer choreographer;
 	private Menu menu;
 	private String currentMode;
 	private String language;
@@ -86,13 +120,30 @@ public class MainActivity extends AppCompatActivity {
 	private int thinColor;
 	private int tintColor;
 	private boolean autoSave;
+	private volatile boolean fastSave;
+	private int peakMeterShown;
+	private String status = "";
+	private long statusShown;
+	private volatile int peakMeterLevel;
+	private volatile boolean visible;
+	private final AtomicBoolean frameRequested = new AtomicBoolean();
+	private final AtomicReference<String> pendingStatus = new AtomicReference<>();
 
 	private void setStatus(int id) {
 		setTitle(id);
 	}
 
 	private void setStatus(String str) {
-		setTitle(str);
+		status = str;
+		showStatus();
+	}
+
+	// the share of real time spent on the waterfall goes next to the status
+	private void showStatus() {
+		if (waterfall == null)
+			setTitle(status);
+		else
+			setTitle(String.format(Locale.US, "%s (FFT %.1f%%, %.1f rows/swap)", status, 100 * waterfall.load(), scopeExchange.copiedRowsPerSwap()));
 	}
 
 	private void setMode(String name) {
@@ -137,16 +188,64 @@ public class MainActivity extends AppCompatActivity {
 					recordBuffer[i] = .000030517578125f * shortBuffer[i];
 			}
 			processPeakMeter();
+			waterfall.process(recordBuffer, recordChannel);
+			waterfallExchange.markRing();
+			waterfallExchange.publish();
 			boolean newLines = decoder.process(recordBuffer, recordChannel);
 			processFreqPlot();
+			freqPlotExchange.markRing();
+			freqPlotExchange.publish();
 			if (newLines) {
-				processScope();
+				scopeExchange.markRing();
+				scopeExchange.publish();
 				processImage();
-				setStatus(decoder.currentMode.getName());
+				pendingStatus.set(decoder.currentMode.getName());
 			}
+			requestFrame();
 		}
 	};
 
+	// blocks only publish their results, drawing happens at most once per display frame
+	private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+		frameRequested.set(false);
+		if (visible)
+			drawFrame(frameTimeNanos);
+	};
+
+	private void requestFrame() {
+		if (visible && frameRequested.compareAndSet(false, true))
+			choreographer.postFrameCallback(frameCallback);
+	}
+
+	private void drawFrame(long frameTimeNanos) {
+		int peak = peakMeterLevel;
+		if (peak != peakMeterShown) {
+			peakMeterShown = peak;
+			drawPeakMeter();
+		}
+		PixelBuffer histograms = freqPlotExchange.acquire();
+		// after a pause only the rows still in the ring are worth drawing
+		if (histograms.rows - freqPlotPixels.rows > freqPlotPixels.height) {
+			freqPlotPixels.rows = histograms.rows - freqPlotPixels.height;
+			freqPlotPixels.line = histograms.line;
+		}
+		while (freqPlotPixels.rows < histograms.rows) {
+			drawFreqPlotRow(histograms, freqPlotPixels.line);
+			freqPlotPixels.advance();
+		}
+		freqPlotView.update(freqPlotPixels);
+		scopeView.update(scopeExchange.acquire());
+		waterfallView.update(waterfallExchange.acquire());
+		String status = pendingStatus.getAndSet(null);
+		if (status != null) {
+			setStatus(status);
+			statusShown = frameTimeNanos;
+		} else if (frameTimeNanos - statusShown > 1000000000L) {
+			showStatus();
+			statusShown = frameTimeNanos;
+		}
+	}
+
 	private void processPeakMeter() {
 		float max = 0;
 		for (float v : recordBuffer)
@@ -155,54 +254,51 @@ public class MainActivity extends AppCompatActivity {
 		int peak = pixels;
 		if (max > 0)
 			peak = (int) Math.round(Math.min(Math.max(-Math.PI * Math.log(max), 0), pixels));
-		Arrays.fill(peakMeterBuffer.pixels, 0, peak, thinColor);
-		Arrays.fill(peakMeterBuffer.pixels, peak, pixels, tintColor);
+		peakMeterLevel = peak;
+	}
+
+	private void drawPeakMeter() {
+		Arrays.fill(peakMeterBuffer.pixels, 0, peakMeterShown, thinColor);
+		Arrays.fill(peakMeterBuffer.pixels, peakMeterShown, peakMeterBuffer.height, tintColor);
 		peakMeterBitmap.setPixels(peakMeterBuffer.pixels, 0, peakMeterBuffer.width, 0, 0, peakMeterBuffer.width, peakMeterBuffer.height);
 		peakMeterView.invalidate();
 	}
 
+	// the decoder only counts, spreading and coloring is left to the frame callback
 	private void processFreqPlot() {
-		int width = freqPlotBitmap.getWidth();
-		int height = freqPlotBitmap.getHeight();
-		int stride = freqPlotBuffer.width;
-		int line = stride * freqPlotBuffer.line;
 		int channels = recordChannel > 0 ? 2 : 1;
-		int samples = recordBuffer.length / channels;
+		freqPlotFactor = 960 / (recordBuffer.length / channels);
+		System.arraycopy(freqPlotHistogram, 0, freqPlotBuffer.pixels, freqPlotBuffer.width * freqPlotBuffer.line, freqPlotBuffer.width);
+		freqPlotBuffer.advance();
+	}
+
+	private void drawFreqPlotRow(PixelBuffer histograms, int row) {
+		int stride = histograms.width;
+		int line = stride * row;
+		int factor = freqPlotFactor;
 		int spread = 2;
-		Arrays.fill(freqPlotBuffer.pixels, line, line + stride, 0);
-		for (int i = 0; i < samples; ++i) {
-			int x = Math.round((recordBuffer[i] + 2.5f) * 0.25f * stride);
-			if (x >= spread && x < stride - spread)
-				for (int j = -spread; j <= spread; ++j)
-					freqPlotBuffer.pixels[line + x + j] += 1 + spread * spread - j * j;
-		}
-		int factor = 960 / samples;
-		for (int i = 0; i < stride; ++i)
-			freqPlotBuffer.pixels[line + i] = 0x00FFFFFF & fgColor | Math.min(factor * freqPlotBuffer.pixels[line + i], 255) << 24;
-		System.arraycopy(freqPlotBuffer.pixels, line, freqPlotBuffer.pixels, line + stride * (freqPlotBuffer.height / 2), stride);
-		freqPlotBuffer.line = (freqPlotBuffer.line + 1) % (freqPlotBuffer.height / 2);
-		int offset = stride * (freqPlotBuffer.line + freqPlotBuffer.height / 2 - height);
-		freqPlotBitmap.setPixels(freqPlotBuffer.pixels, offset, stride, 0, 0, width, height);
-		freqPlotView.invalidate();
-	}
-
-	private void processScope() {
-		int width = scopeBitmap.getWidth();
-		int height = scopeBitmap.getHeight();
-		int stride = scopeBuffer.width;
-		int offset = stride * (scopeBuffer.line + scopeBuffer.height / 2 - height);
-		scopeBitmap.setPixels(scopeBuffer.pixels, offset, stride, 0, 0, width, height);
-		scopeView.invalidate();
+		for (int x = 0; x < stride; ++x) {
+			int sum = 0;
+			for (int j = -spread; j <= spread; ++j) {
+				int bin = x - j;
+				if (bin >= spread && bin < stride - spread)
+					sum += (1 + spread * spread - j * j) * histograms.pixels[line + bin];
+			}
+			freqPlotPixels.pixels[line + x] = 0x00FFFFFF & fgColor | Math.min(factor * sum, 255) << 24;
+		}
 	}
 
 	private void processImage() {
 		if (imageBuffer.line < imageBuffer.height)
 			return;
 		imageBuffer.line = -1;
-		if (autoSave)
-			storeBitmap(Bitmap.createBitmap(imageBuffer.pixels, imageBuffer.width, imageBuffer.height, Bitmap.Config.ARGB_8888));
 	}
 
+	private final SlantCorrector.Callback slantCorrected = image -> {
+		if (autoSave)
+			imageSaver.save(image);
+	};
+
 	private void initAudioRecord() {
 		boolean rateChanged = true;
 		if (audioRecord != null) {
@@ -236,8 +332,8 @@ public class MainActivity extends AppCompatActivity {
 				audioRecord.setRecordPositionUpdateListener(recordListener);
 				audioRecord.setPositionNotificationPeriod(frameCount);
 				if (rateChanged) {
-					decoder = new Decoder(scopeBuffer, imageBuffer, getString(R.string.raw_mode), recordRate);
-					decoder.setMode(currentMode);
+					createDecoder();
+					waterfall = new Waterfall(waterfallBuffer, recordRate, fgColor, 20, 0.05);
 				}
 				startListening();
 			} else {
@@ -252,6 +348,102 @@ public class MainActivity extends AppCompatActivity {
 		}
 	}
 
+	private Decoder newDecoder() {
+		Decoder decoder = new Decoder(scopeBuffer, imageBuffer, getString(R.string.raw_mode), recordRate);
+		decoder.setMode(currentMode);
+		decoder.setSlantCorrection(slantCorrected);
+		decoder.setFrequencyHistogram(freqPlotHistogram);
+		if (((ActivityManager) getSystemService(ACTIVITY_SERVICE)).isLowRamDevice())
+			decoder.setPreview(getResources().getDisplayMetrics().widthPixels);
+		decoder.addImageListener(mappedImage);
+		return decoder;
+	}
+
+	// the image in progress carries over to the new rate, or from the activity before a recreation
+	private void createDecoder() {
+		Decoder previous = decoder;
+		decoder = newDecoder();
+		try {
+			if (previous != null) {
+				Snapshot.Buffer buffer = new Snapshot.Buffer();
+				previous.save(new DataOutputStream(buffer));
+				decoder.restore(new DataInputStream(buffer.input()));
+			} else if (restoredDecoder != null) {
+				decoder.restore(new DataInputStream(new ByteArrayInputStream(restoredDecoder)));
+			}
+		} catch (IOException e) {
+			mappedImage.discard();
+			decoder = newDecoder();
+		}
+		restoredDecoder = null;
+	}
+
+	private File decoderSnapshot() {
+		return new File(getCacheDir(), "decoder.snapshot");
+	}
+
+	// only for a recreation, which picks it up right away, the journal of the image is then no longer needed
+	private boolean storeDecoder() {
+		if (decoder == null || !isChangingConfigurations())
+			return false;
+		Snapshot.Buffer buffer = new Snapshot.Buffer();
+		try {
+			decoder.save(new DataOutputStream(buffer));
+		} catch (IOException e) {
+			return false;
+		}
+		mappedImage.discard();
+		File file = decoderSnapshot();
+		snapshotExecutor.execute(() -> {
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				buffer.writeTo(out);
+			} catch (IOException e) {
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+			}
+		});
+		return true;
+	}
+
+	// queued behind the write of the activity before, so it finds the file complete
+	private void loadDecoder() {
+		File file = decoderSnapshot();
+		snapshotExecutor.execute(() -> {
+			byte[] bytes = readSnapshot(file);
+			if (bytes != null)
+				runOnUiThread(() -> restoreDecoder(bytes));
+		});
+	}
+
+	private static byte[] readSnapshot(File file) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			byte[] bytes = new byte[(int) file.length()];
+			in.readFully(bytes);
+			return bytes;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+		}
+	}
+
+	// on the main thread, like the audio callbacks, without a decoder yet it is left for createDecoder
+	private void restoreDecoder(byte[] bytes) {
+		if (isDestroyed())
+			return;
+		if (decoder == null) {
+			restoredDecoder = bytes;
+			return;
+		}
+		try {
+			decoder.restore(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (IOException e) {
+			mappedImage.discard();
+			decoder = newDecoder();
+		}
+	}
+
 	private void startListening() {
 		if (audioRecord != null) {
 			audioRecord.startRecording();
@@ -311,6 +503,20 @@ public class MainActivity extends AppCompatActivity {
 		updateAutoSaveMenu();
 	}
 
+	private void setFastSave(boolean newFastSave) {
+		if (fastSave == newFastSave)
+			return;
+		fastSave = newFastSave;
+		updateFastSaveMenu();
+	}
+
+	private void updateFastSaveMenu() {
+		if (fastSave)
+			menu.findItem(R.id.action_enable_fast_save).setChecked(true);
+		else
+			menu.findItem(R.id.action_disable_fast_save).setChecked(true);
+	}
+
 	private void updateAutoSaveMenu() {
 		if (autoSave)
 			menu.findItem(R.id.action_enable_auto_save).setChecked(true);
@@ -402,7 +608,9 @@ public class MainActivity extends AppCompatActivity {
 		state.putInt("audioSource", audioSource);
 		state.putInt("audioFormat", audioFormat);
 		state.putBoolean("autoSave", autoSave);
+		state.putBoolean("fastSave", fastSave);
 		state.putString("language", language);
+		state.putBoolean("restoreDecoder", storeDecoder());
 		super.onSaveInstanceState(state);
 	}
 
@@ -415,6 +623,7 @@ public class MainActivity extends AppCompatActivity {
 		edit.putInt("audioSource", audioSource);
 		edit.putInt("audioFormat", audioFormat);
 		edit.putBoolean("autoSave", autoSave);
+		edit.putBoolean("fastSave", fastSave);
 		edit.putString("language", language);
 		edit.apply();
 	}
@@ -426,6 +635,7 @@ public class MainActivity extends AppCompatActivity {
 		final int defaultAudioSource = MediaRecorder.AudioSource.MIC;
 		final int defaultAudioFormat = AudioFormat.ENCODING_PCM_FLOAT;
 		final boolean defaultAutoSave = true;
+		final boolean defaultFastSave = false;
 		final String defaultLanguage = "system";
 		if (state == null) {
 			SharedPreferences pref = getPreferences(Context.MODE_PRIVATE);
@@ -435,6 +645,7 @@ public class MainActivity extends AppCompatActivity {
 			audioSource = pref.getInt("audioSource", defaultAudioSource);
 			audioFormat = pref.getInt("audioFormat", defaultAudioFormat);
 			autoSave = pref.getBoolean("autoSave", defaultAutoSave);
+			fastSave = pref.getBoolean("fastSave", defaultFastSave);
 			language = pref.getString("language", defaultLanguage);
 		} else {
 			AppCompatDelegate.setDefaultNightMode(state.getInt("nightMode", AppCompatDelegate.getDefaultNightMode()));
@@ -443,7 +654,10 @@ public class MainActivity extends AppCompatActivity {
 			audioSource = state.getInt("audioSource", defaultAudioSource);
 			audioFormat = state.getInt("audioFormat", defaultAudioFormat);
 			autoSave = state.getBoolean("autoSave", defaultAutoSave);
+			fastSave = state.getBoolean("fastSave", defaultFastSave);
 			language = state.getString("language", defaultLanguage);
+			if (state.getBoolean("restoreDecoder", false))
+				loadDecoder();
 		}
 		super.onCreate(state);
 		setLanguage(language);
@@ -454,12 +668,31 @@ public class MainActivity extends AppCompatActivity {
 		fgColor = getColor(R.color.fg);
 		thinColor = getColor(R.color.thin);
 		tintColor = getColor(R.color.tint);
-		scopeBuffer = new PixelBuffer(640, 2 * 1280);
-		freqPlotBuffer = new PixelBuffer(256, 2 * 256);
+		scopeBuffer = new PixelBuffer(640, 1280);
+		freqPlotBuffer = new PixelBuffer(256, 256);
+		scopeExchange = new PixelBufferExchange(scopeBuffer);
+		freqPlotExchange = new PixelBufferExchange(freqPlotBuffer);
+		freqPlotPixels = new PixelBuffer(freqPlotBuffer.width, freqPlotBuffer.height);
+		freqPlotHistogram = new int[freqPlotBuffer.width];
+		waterfallBuffer = new PixelBuffer(256, 256);
+		waterfallExchange = new PixelBufferExchange(waterfallBuffer);
 		peakMeterBuffer = new PixelBuffer(1, 16);
+		peakMeterLevel = peakMeterBuffer.height;
+		peakMeterShown = -1;
+		choreographer = Choreographer.getInstance();
 		imageBuffer = new PixelBuffer(800, 616);
+		pngEncoder = new PngEncoder(6);
+		rawImage = new RawImage();
+		rawImageConverter = new RawImageConverter(6, this::imageConverted);
+		// whatever the last run left unconverted, a recreation leaves that to the converter before it
+		if (state == null)
+			rawImageConverter.convertAll(rawImageDirectory());
+		imageSaver = new ImageSaver(4, this::storeImage);
+		recoverImages();
+		mappedImage = new MappedImage(new File(getFilesDir(), "partial"));
 		createScope(config);
 		createFreqPlot(config);
+		createWaterfall(config);
 		createPeakMeter();
 		List<String> permissions = new ArrayList<>();
 		if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
@@ -474,6 +707,13 @@ public class MainActivity extends AppCompatActivity {
 			ActivityCompat.requestPermissions(this, permissions.toArray(new String[0]), permissionID);
 	}
 
+	@Override
+	protected void onDestroy() {
+		rawImageConverter.shutdown();
+		imageSaver.shutdown();
+		super.onDestroy();
+	}
+
 	private void handleInsets() {
 		ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.main), (v, insets) -> {
 			Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -491,6 +731,7 @@ public class MainActivity extends AppCompatActivity {
 		updateAudioSourceMenu();
 		updateAudioFormatMenu();
 		updateAutoSaveMenu();
+		updateFastSaveMenu();
 		return true;
 	}
 
@@ -649,6 +890,14 @@ public class MainActivity extends AppCompatActivity {
 			setAutoSave(false);
 			return true;
 		}
+		if (id == R.id.action_enable_fast_save) {
+			setFastSave(true);
+			return true;
+		}
+		if (id == R.id.action_disable_fast_save) {
+			setFastSave(false);
+			return true;
+		}
 		if (id == R.id.action_enable_night_mode) {
 			AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
 			return true;
@@ -702,47 +951,60 @@ public class MainActivity extends AppCompatActivity {
 			AppCompatDelegate.setApplicationLocales(LocaleListCompat.forLanguageTags(language));
 	}
 
+	private void recoverImages() {
+		for (File file : MappedImage.pending(new File(getFilesDir(), "partial"))) {
+			try {
+				PixelBuffer image = MappedImage.recover(file);
+				if (image != null && autoSave)
+					imageSaver.save(image);
+			} catch (IOException ignore) {
+			}
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+		}
+	}
+
 	private void storeScope() {
-		int width = scopeBuffer.width;
-		int height = scopeBuffer.height / 2;
-		int stride = scopeBuffer.width;
-		int offset = stride * scopeBuffer.line;
-		storeBitmap(Bitmap.createBitmap(scopeBuffer.pixels, offset, stride, width, height, Bitmap.Config.ARGB_8888));
+		PixelBuffer scope = scopeExchange.acquire();
+		imageSaver.save(scope, scope.line);
 	}
 
 	private void createScope(Configuration config) {
 		int screenWidthDp = config.screenWidthDp;
 		int screenHeightDp = config.screenHeightDp;
 		int freqPlotHeightDp = 64;
+		int waterfallHeightDp = 64;
 		if (config.orientation == Configuration.ORIENTATION_LANDSCAPE)
 			screenWidthDp /= 2;
 		else
-			screenHeightDp -= freqPlotHeightDp;
+			screenHeightDp -= freqPlotHeightDp + waterfallHeightDp;
 		int actionBarHeightDp = 64;
 		screenHeightDp -= actionBarHeightDp;
 		int width = scopeBuffer.width;
-		int height = Math.min(Math.max((width * screenHeightDp) / screenWidthDp, 496), scopeBuffer.height / 2);
+		int height = Math.min(Math.max((width * screenHeightDp) / screenWidthDp, 496), scopeBuffer.height);
 		scopeBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-		int stride = scopeBuffer.width;
-		int offset = stride * (scopeBuffer.line + scopeBuffer.height / 2 - height);
-		scopeBitmap.setPixels(scopeBuffer.pixels, offset, stride, 0, 0, width, height);
 		scopeView = findViewById(R.id.scope);
-		scopeView.setScaleType(ImageView.ScaleType.FIT_CENTER);
-		scopeView.setImageBitmap(scopeBitmap);
+		scopeView.setBitmap(scopeBitmap, true, scopeExchange.acquire());
 	}
 
 	private void createFreqPlot(Configuration config) {
 		int width = freqPlotBuffer.width;
-		int height = freqPlotBuffer.height / 2;
+		int height = freqPlotBuffer.height;
 		if (config.orientation != Configuration.ORIENTATION_LANDSCAPE)
 			height /= 4;
 		freqPlotBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-		int stride = freqPlotBuffer.width;
-		int offset = stride * (freqPlotBuffer.line + freqPlotBuffer.height / 2 - height);
-		freqPlotBitmap.setPixels(freqPlotBuffer.pixels, offset, stride, 0, 0, width, height);
 		freqPlotView = findViewById(R.id.freq_plot);
-		freqPlotView.setScaleType(ImageView.ScaleType.FIT_XY);
-		freqPlotView.setImageBitmap(freqPlotBitmap);
+		freqPlotView.setBitmap(freqPlotBitmap, false, freqPlotPixels);
+	}
+
+	private void createWaterfall(Configuration config) {
+		int width = waterfallBuffer.width;
+		int height = waterfallBuffer.height;
+		if (config.orientation != Configuration.ORIENTATION_LANDSCAPE)
+			height /= 4;
+		waterfallBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		waterfallView = findViewById(R.id.waterfall);
+		waterfallView.setBitmap(waterfallBitmap, false, waterfallExchange.acquire());
 	}
 
 	private void createPeakMeter() {
@@ -760,6 +1022,7 @@ public class MainActivity extends AppCompatActivity {
 		handleInsets();
 		createScope(config);
 		createFreqPlot(config);
+		createWaterfall(config);
 		createPeakMeter();
 	}
 
@@ -774,8 +1037,62 @@ public class MainActivity extends AppCompatActivity {
 		builder.show();
 	}
 
-	void storeBitmap(Bitmap bitmap) {
+	private interface ImageWriter {
+		void write(FileOutputStream stream) throws IOException;
+	}
+
+	private File rawImageDirectory() {
+		File dir = new File(getFilesDir(), "raw");
+		//noinspection ResultOfMethodCallIgnored
+		dir.mkdirs();
+		return dir;
+	}
+
+	// fast saves only write the pixels as they are, the PNG gets made and published later in the background
+	private void storeImage(PixelBuffer image) {
 		Date date = new Date();
+		if (fastSave) {
+			String name = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(date);
+			File raw = new File(rawImageDirectory(), name + RawImage.EXTENSION);
+			try {
+				rawImage.write(raw, image);
+			} catch (IOException e) {
+				showToast(R.string.creating_picture_file_failed);
+				return;
+			}
+			rawImageConverter.convert(raw, new File(raw.getParentFile(), name + ".png"));
+			return;
+		}
+		publishImage(date, stream -> pngEncoder.encode(image, stream));
+	}
+
+	private void imageConverted(File raw, File png, IOException error) {
+		if (error != null) {
+			showToast(R.string.storing_picture_failed);
+			return;
+		}
+		String name = png.getName();
+		Date date;
+		try {
+			date = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).parse(name.substring(0, name.length() - 4));
+		} catch (ParseException e) {
+			date = new Date(png.lastModified());
+		}
+		boolean published = publishImage(date, stream -> {
+			try (FileChannel channel = new FileInputStream(png).getChannel()) {
+				long size = channel.size();
+				for (long position = 0; position < size; )
+					position += channel.transferTo(position, size - position, stream.getChannel());
+			}
+		});
+		// kept for convertAll to try again on the next start
+		if (!published)
+			return;
+		//noinspection ResultOfMethodCallIgnored
+		png.delete();
+	}
+
+	private boolean publishImage(Date date, ImageWriter writer) {
 		String name = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(date);
 		name += ".png";
 		String title = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(date);
@@ -785,17 +1102,17 @@ public class MainActivity extends AppCompatActivity {
 			dir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
 			if (!dir.exists() && !dir.mkdirs()) {
 				showToast(R.string.creating_picture_directory_failed);
-				return;
+				return false;
 			}
 			File file;
 			try {
 				file = new File(dir, name);
 				FileOutputStream stream = new FileOutputStream(file);
-				bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+				writer.write(stream);
 				stream.close();
 			} catch (IOException e) {
 				showToast(R.string.creating_picture_file_failed);
-				return;
+				return false;
 			}
 			values.put(MediaStore.Images.ImageColumns.DATA, file.toString());
 		} else {
@@ -809,22 +1126,22 @@ public class MainActivity extends AppCompatActivity {
 		Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
 		if (uri == null) {
 			showToast(R.string.storing_picture_failed);
-			return;
+			return false;
 		}
 		if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
 			try {
 				ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "w");
 				if (descriptor == null) {
 					showToast(R.string.storing_picture_failed);
-					return;
+					return false;
 				}
 				FileOutputStream stream = new FileOutputStream(descriptor.getFileDescriptor());
-				bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+				writer.write(stream);
 				stream.close();
 				descriptor.close();
 			} catch (IOException e) {
 				showToast(R.string.storing_picture_failed);
-				return;
+				return false;
 			}
 			values.clear();
 			values.put(MediaStore.Images.Media.IS_PENDING, 0);
@@ -833,16 +1150,24 @@ public class MainActivity extends AppCompatActivity {
 		Intent intent = new Intent(Intent.ACTION_SEND);
 		intent.putExtra(Intent.EXTRA_STREAM, uri);
 		intent.setType("image/png");
-		ShareActionProvider share = (ShareActionProvider) MenuItemCompat.getActionProvider(menu.findItem(R.id.menu_item_share));
-		if (share != null)
-			share.setShareIntent(intent);
-		showToast(name);
+		runOnUiThread(() -> {
+			ShareActionProvider share = (ShareActionProvider) MenuItemCompat.getActionProvider(menu.findItem(R.id.menu_item_share));
+			if (share != null)
+				share.setShareIntent(intent);
+		});
+		String status = String.format(Locale.US, "%s (%.0f ms, %d queued", name, imageSaver.averageLatencyMillis(), imageSaver.pending());
+		if (imageSaver.dropped() > 0)
+			status += String.format(Locale.US, ", %d dropped", imageSaver.dropped());
+		showToast(status + ")");
+		return true;
 	}
 
 	private void showToast(String message) {
-		Toast toast = Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT);
-		toast.setGravity(Gravity.CENTER_HORIZONTAL | Gravity.CENTER_VERTICAL, 0, 0);
-		toast.show();
+		runOnUiThread(() -> {
+			Toast toast = Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT);
+			toast.setGravity(Gravity.CENTER_HORIZONTAL | Gravity.CENTER_VERTICAL, 0, 0);
+			toast.show();
+		});
 	}
 
 	private void showToast(int id) {
@@ -851,12 +1176,17 @@ public class MainActivity extends AppCompatActivity {
 
 	@Override
 	protected void onResume() {
+		visible = true;
+		requestFrame();
 		startListening();
 		super.onResume();
 	}
 
 	@Override
 	protected void onPause() {
+		visible = false;
+		choreographer.removeFrameCallback(frameCallback);
+		frameRequested.set(false);
 		stopListening();
 		storeSettings();
 		super.onPause();
@@ -0,0 +1,108 @@
+/*
+Memory mapped image journal
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedImage implements ImageListener {
+	public static final String EXTENSION = ".r36.part";
+	private final File directory;
+	private File file;
+	private MappedByteBuffer buffer;
+	private IntBuffer pixels;
+	private int width;
+	private int height;
+	private int linesOffset;
+
+	MappedImage(File directory) {
+		this.directory = directory;
+	}
+
+	// same layout as RawImage, followed by the number of rows received so far
+	public boolean begin(int width, int height) {
+		discard();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return false;
+		file = new File(directory, System.currentTimeMillis() + EXTENSION);
+		int pixelBytes = 4 * width * height;
+		linesOffset = RawImage.HEADER_BYTES + pixelBytes;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, linesOffset + 4);
+		} catch (IOException e) {
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+			file = null;
+			buffer = null;
+			return false;
+		}
+		buffer.putInt(0, RawImage.MAGIC);
+		buffer.putInt(4, width);
+		buffer.putInt(8, height);
+		buffer.putInt(linesOffset, 0);
+		buffer.position(RawImage.HEADER_BYTES);
+		buffer.limit(linesOffset);
+		pixels = buffer.slice().asIntBuffer();
+		buffer.clear();
+		this.width = width;
+		this.height = height;
+		return true;
+	}
+
+	@Override
+	public void imageStarted(Mode mode, int width, int height, int visCode) {
+		begin(width, height);
+	}
+
+	@Override
+	public void rowDecoded(IntBuffer row, int line, float quality) {
+		if (buffer == null || line < 0 || line >= height || row.remaining() != width)
+			return;
+		pixels.position(line * width);
+		pixels.put(row);
+		buffer.putInt(linesOffset, line + 1);
+	}
+
+	// the saved copy comes from the slant corrector, the journal only matters if the process dies before that
+	@Override
+	public void imageEnded(boolean complete) {
+		discard();
+	}
+
+	public void discard() {
+		if (file == null)
+			return;
+		//noinspection ResultOfMethodCallIgnored
+		file.delete();
+		file = null;
+		buffer = null;
+		pixels = null;
+	}
+
+	public static File[] pending(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		return files != null ? files : new File[0];
+	}
+
+	public static PixelBuffer recover(File file) throws IOException {
+		PixelBuffer image;
+		int lines;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			image = new RawImage().read(raf.getChannel());
+			lines = raf.readInt();
+		}
+		if (lines <= 0 || lines > image.height)
+			return null;
+		image.height = lines;
+		image.line = lines;
+		return image;
+	}
+}
@@ -21,7 +21,9 @@ public interface Mode {
 
 	int getScanLineSamples();
 
-	void reset();
+	boolean isYUV();
 
-	boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int syncPulseIndex, int scanLineSamples, float frequencyOffset);
+	// with a preview width, lines have no more columns than that, the full resolution is left for later
+	// with yuv set, modes that are isYUV() leave the pixels packed as 0xffYYUUVV for a bulk conversion later
+	boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int previewWidth, boolean yuv, double syncPulseIndex, double scanLineSamples, float frequencyOffset);
 }
@@ -0,0 +1,57 @@
+/*
+Shared mode tables
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ModeTable {
+	// modes are immutable, so all decoders running at the same sample rate share them
+	private static final ConcurrentHashMap<Integer, ModeTable> tables = new ConcurrentHashMap<>();
+	public final List<Mode> syncPulse5msModes;
+	public final List<Mode> syncPulse9msModes;
+	public final List<Mode> syncPulse20msModes;
+
+	private ModeTable(int sampleRate) {
+		ArrayList<Mode> modes = new ArrayList<>();
+		modes.add(RGBModes.Wraase_SC2_180(sampleRate));
+		modes.add(RGBModes.Martin("1", 44, 0.146432, sampleRate));
+		modes.add(RGBModes.Martin("2", 40, 0.073216, sampleRate));
+		syncPulse5msModes = Collections.unmodifiableList(modes);
+		modes = new ArrayList<>();
+		modes.add(new Robot_36_Color(sampleRate));
+		modes.add(new Robot_72_Color(sampleRate));
+		modes.add(RGBModes.Scottie("1", 60, 0.138240, sampleRate));
+		modes.add(RGBModes.Scottie("2", 56, 0.088064, sampleRate));
+		modes.add(RGBModes.Scottie("DX", 76, 0.3456, sampleRate));
+		syncPulse9msModes = Collections.unmodifiableList(modes);
+		modes = new ArrayList<>();
+		modes.add(new PaulDon("50", 93, 320, 256, 0.09152, sampleRate));
+		modes.add(new PaulDon("90", 99, 320, 256, 0.17024, sampleRate));
+		modes.add(new PaulDon("120", 95, 640, 496, 0.1216, sampleRate));
+		modes.add(new PaulDon("160", 98, 512, 400, 0.195584, sampleRate));
+		modes.add(new PaulDon("180", 96, 640, 496, 0.18304, sampleRate));
+		modes.add(new PaulDon("240", 97, 640, 496, 0.24448, sampleRate));
+		modes.add(new PaulDon("290", 94, 800, 616, 0.2288, sampleRate));
+		syncPulse20msModes = Collections.unmodifiableList(modes);
+	}
+
+	public Mode find(String name) {
+		for (List<Mode> modes : Arrays.asList(syncPulse5msModes, syncPulse9msModes, syncPulse20msModes))
+			for (Mode mode : modes)
+				if (mode.getName().equals(name))
+					return mode;
+		return null;
+	}
+
+	public static ModeTable get(int sampleRate) {
+		return tables.computeIfAbsent(sampleRate, ModeTable::new);
+	}
+}
@@ -7,7 +7,8 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 package xdsopl.robot36;
 
 public class PaulDon implements Mode {
-	private final ExponentialMovingAverage lowPassFilter;
+	private final float lowPassAlpha;
+	private final Interpolator interpolator;
 	private final int horizontalPixels;
 	private final int verticalPixels;
 	private final int scanLineSamples;
@@ -43,7 +44,8 @@ public class PaulDon implements Mode {
 		yOddBeginSamples = (int) Math.round(yOddBeginSeconds * sampleRate);
 		double yOddEndSeconds = yOddBeginSeconds + channelSeconds;
 		endSamples = (int) Math.round(yOddEndSeconds * sampleRate);
-		lowPassFilter = new ExponentialMovingAverage();
+		lowPassAlpha = ExponentialMovingAverage.cutoffAlpha(horizontalPixels, 2 * channelSamples, 2);
+		interpolator = Interpolator.CUBIC;
 	}
 
 	private float freqToLevel(float frequency, float offset) {
@@ -86,32 +88,47 @@ public class PaulDon implements Mode {
 	}
 
 	@Override
-	public void reset() {
+	public boolean isYUV() {
+		return true;
 	}
 
 	@Override
-	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int syncPulseIndex, int scanLineSamples, float frequencyOffset) {
-		if (syncPulseIndex + beginSamples < 0 || syncPulseIndex + endSamples > scanLineBuffer.length)
+	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int previewWidth, boolean yuv, double syncPulseIndex, double scanLineSamples, float frequencyOffset) {
+		float scale = (float) (scanLineSamples / this.scanLineSamples);
+		int syncPulsePos = (int) Math.floor(syncPulseIndex);
+		float syncPulseFrac = (float) (syncPulseIndex - syncPulsePos);
+		int firstSample = (int) Math.floor(syncPulseFrac + beginSamples * scale) - interpolator.before() - 1;
+		int lastSample = (int) Math.ceil(syncPulseFrac + endSamples * scale) + interpolator.after() + 1;
+		if (syncPulsePos + firstSample < 0 || syncPulsePos + lastSample > scanLineBuffer.length || lastSample - firstSample > scratchBuffer.length)
 			return false;
-		lowPassFilter.cutoff(horizontalPixels, 2 * channelSamples, 2);
-		lowPassFilter.reset();
-		for (int i = beginSamples; i < endSamples; ++i)
-			scratchBuffer[i] = lowPassFilter.avg(scanLineBuffer[syncPulseIndex + i]);
-		lowPassFilter.reset();
-		for (int i = endSamples - 1; i >= beginSamples; --i)
-			scratchBuffer[i] = freqToLevel(lowPassFilter.avg(scratchBuffer[i]), frequencyOffset);
-		for (int i = 0; i < horizontalPixels; ++i) {
-			int position = (i * channelSamples) / horizontalPixels;
-			int yEvenPos = position + yEvenBeginSamples;
-			int vAvgPos = position + vAvgBeginSamples;
-			int uAvgPos = position + uAvgBeginSamples;
-			int yOddPos = position + yOddBeginSamples;
-			pixelBuffer.pixels[i] =
-				ColorConverter.YUV2RGB(scratchBuffer[yEvenPos], scratchBuffer[uAvgPos], scratchBuffer[vAvgPos]);
-			pixelBuffer.pixels[i + horizontalPixels] =
-				ColorConverter.YUV2RGB(scratchBuffer[yOddPos], scratchBuffer[uAvgPos], scratchBuffer[vAvgPos]);
+		int columns = previewWidth > 0 ? Math.min(horizontalPixels, previewWidth) : horizontalPixels;
+		float avg = 0;
+		for (int i = firstSample; i < lastSample; ++i)
+			scratchBuffer[i - firstSample] = avg += lowPassAlpha * (scanLineBuffer[syncPulsePos + i] - avg);
+		avg = 0;
+		for (int i = lastSample - firstSample - 1; i >= 0; --i)
+			scratchBuffer[i] = freqToLevel(avg += lowPassAlpha * (scratchBuffer[i] - avg), frequencyOffset);
+		float offset = syncPulseFrac - firstSample;
+		float yEvenBegin = offset + yEvenBeginSamples * scale;
+		float vAvgBegin = offset + vAvgBeginSamples * scale;
+		float uAvgBegin = offset + uAvgBeginSamples * scale;
+		float yOddBegin = offset + yOddBeginSamples * scale;
+		float channelStep = channelSamples * scale / columns;
+		for (int i = 0; i < columns; ++i) {
+			float position = i * channelStep;
+			float yEven = interpolator.sample(scratchBuffer, yEvenBegin + position);
+			float vAvg = interpolator.sample(scratchBuffer, vAvgBegin + position);
+			float uAvg = interpolator.sample(scratchBuffer, uAvgBegin + position);
+			float yOdd = interpolator.sample(scratchBuffer, yOddBegin + position);
+			if (yuv) {
+				pixelBuffer.pixels[i] = ColorConverter.RGB(yEven, uAvg, vAvg);
+				pixelBuffer.pixels[i + columns] = ColorConverter.RGB(yOdd, uAvg, vAvg);
+			} else {
+				pixelBuffer.pixels[i] = ColorConverter.YUV2RGB(yEven, uAvg, vAvg);
+				pixelBuffer.pixels[i + columns] = ColorConverter.YUV2RGB(yOdd, uAvg, vAvg);
+			}
 		}
-		pixelBuffer.width = horizontalPixels;
+		pixelBuffer.width = columns;
 		pixelBuffer.height = 2;
 		return true;
 	}
@@ -6,6 +6,10 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Phasor {
 	private final Complex value;
 	private final Complex delta;
@@ -17,4 +21,14 @@ public class Phasor {
 	Complex rotate() {
 		return value.div(value.mul(delta).abs());
 	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeFloat(value.real);
+		out.writeFloat(value.imag);
+	}
+
+	void restore(DataInput in) throws IOException {
+		value.real = in.readFloat();
+		value.imag = in.readFloat();
+	}
 }
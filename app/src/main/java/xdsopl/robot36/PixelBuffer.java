@@ -11,6 +11,8 @@ public class PixelBuffer {
 	public int width;
 	public int height;
 	public int line;
+	// rows ever added to a ring, unlike line this also tells how many went by since it was last looked at
+	public long rows;
 
 	PixelBuffer(int width, int height) {
 		this.width = width;
@@ -18,4 +20,10 @@ public class PixelBuffer {
 		this.line = 0;
 		this.pixels = new int[width * height];
 	}
+
+	// moves the ring on to its next row
+	public void advance() {
+		line = (line + 1) % height;
+		++rows;
+	}
 }
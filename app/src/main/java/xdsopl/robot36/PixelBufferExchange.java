@@ -0,0 +1,102 @@
+/*
+Triple buffered pixel buffer exchange
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PixelBufferExchange {
+	private static class Slot {
+		final PixelBuffer buffer;
+		long version;
+		boolean fresh;
+
+		Slot(PixelBuffer source) {
+			buffer = new PixelBuffer(source.width, source.height);
+			System.arraycopy(source.pixels, 0, buffer.pixels, 0, source.pixels.length);
+			buffer.line = source.line;
+			buffer.rows = source.rows;
+		}
+	}
+
+	private final PixelBuffer source;
+	private final long[] rowVersions;
+	private final AtomicReference<Slot> middle;
+	// back is only touched by the producer, front only by the consumer
+	private Slot back;
+	private Slot front;
+	private long version;
+	private int ringLine;
+	private long ringRows;
+	private volatile long swaps;
+	private volatile long copiedRows;
+
+	PixelBufferExchange(PixelBuffer source) {
+		this.source = source;
+		rowVersions = new long[source.height];
+		back = new Slot(source);
+		front = new Slot(source);
+		middle = new AtomicReference<>(new Slot(source));
+		ringLine = source.line;
+		ringRows = source.rows;
+	}
+
+	// producer side, rows may wrap around the bottom
+	public void markRows(int first, int count) {
+		count = Math.min(count, source.height);
+		for (int i = 0; i < count; ++i)
+			rowVersions[(first + i) % source.height] = version + 1;
+	}
+
+	// producer side, for ring buffers: marks the rows added since the last call, all of them after a full turn
+	public void markRing() {
+		markRows(ringLine, (int) Math.min(source.rows - ringRows, source.height));
+		ringLine = source.line;
+		ringRows = source.rows;
+	}
+
+	// producer side, never blocks: brings the back buffer up to date and swaps it into the middle
+	public void publish() {
+		++version;
+		int width = source.width;
+		long copied = 0;
+		for (int row = 0; row < source.height; ++row) {
+			if (rowVersions[row] > back.version) {
+				System.arraycopy(source.pixels, row * width, back.buffer.pixels, row * width, width);
+				++copied;
+			}
+		}
+		back.buffer.line = source.line;
+		back.buffer.rows = source.rows;
+		back.version = version;
+		back.fresh = true;
+		back = middle.getAndSet(back);
+		copiedRows += copied;
+		++swaps;
+	}
+
+	// consumer side, returns the newest published frame, which stays consistent until the next call
+	public PixelBuffer acquire() {
+		if (middle.get().fresh) {
+			front.fresh = false;
+			front = middle.getAndSet(front);
+		}
+		return front.buffer;
+	}
+
+	public long swaps() {
+		return swaps;
+	}
+
+	public long copiedRows() {
+		return copiedRows;
+	}
+
+	public double copiedRowsPerSwap() {
+		long swaps = this.swaps;
+		return swaps > 0 ? copiedRows / (double) swaps : 0;
+	}
+}
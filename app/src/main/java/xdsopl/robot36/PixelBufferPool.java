@@ -0,0 +1,49 @@
+/*
+Pixel buffer pool keyed by dimensions
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PixelBufferPool {
+	private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<PixelBuffer>> pools;
+	private final AtomicInteger allocations;
+	private final int limit;
+
+	PixelBufferPool(int limit) {
+		this.limit = limit;
+		pools = new ConcurrentHashMap<>();
+		allocations = new AtomicInteger();
+	}
+
+	private ConcurrentLinkedQueue<PixelBuffer> pool(int width, int height) {
+		return pools.computeIfAbsent((long) width << 32 | height, key -> new ConcurrentLinkedQueue<>());
+	}
+
+	public PixelBuffer obtain(int width, int height) {
+		PixelBuffer buffer = pool(width, height).poll();
+		if (buffer == null) {
+			allocations.incrementAndGet();
+			buffer = new PixelBuffer(width, height);
+		}
+		buffer.line = 0;
+		return buffer;
+	}
+
+	public void release(PixelBuffer buffer) {
+		if (buffer.pixels.length != buffer.width * buffer.height)
+			return;
+		ConcurrentLinkedQueue<PixelBuffer> pool = pool(buffer.width, buffer.height);
+		if (pool.size() < limit)
+			pool.offer(buffer);
+	}
+
+	public int allocations() {
+		return allocations.get();
+	}
+}
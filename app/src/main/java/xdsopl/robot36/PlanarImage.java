@@ -0,0 +1,93 @@
+/*
+Planar YUV image
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PlanarImage {
+	private static final ExecutorService sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+		Thread thread = new Thread(runnable, "PlanarImage");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final int bandPixels = 65536;
+	private final ExecutorService executor;
+	private final byte[] luminance;
+	private final byte[] blueDifference;
+	private final byte[] redDifference;
+	public int width;
+	public int height;
+
+	PlanarImage(int maxPixels) {
+		this(maxPixels, sharedExecutor);
+	}
+
+	PlanarImage(int maxPixels, ExecutorService executor) {
+		this.executor = executor;
+		luminance = new byte[maxPixels];
+		blueDifference = new byte[maxPixels];
+		redDifference = new byte[maxPixels];
+	}
+
+	public void begin(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	// takes rows packed as 0xAAYYUUVV, like ColorConverter.YUV2RGB(int) does
+	public void putRow(int line, int[] pixels, int offset) {
+		int begin = line * width;
+		for (int x = 0; x < width; ++x) {
+			int pixel = pixels[offset + x];
+			luminance[begin + x] = (byte) (pixel >> 16);
+			blueDifference[begin + x] = (byte) (pixel >> 8);
+			redDifference[begin + x] = (byte) pixel;
+		}
+	}
+
+	private void convertBand(PixelBuffer image, int firstRow, int lastRow) {
+		for (int i = firstRow * width; i < lastRow * width; ++i)
+			image.pixels[i] = ColorConverter.YUV2RGB(luminance[i] & 255, blueDifference[i] & 255, redDifference[i] & 255);
+	}
+
+	// converts rows from firstRow up to lastRow all at once, large ranges in bands of rows on the executor
+	public void convert(PixelBuffer image, int firstRow, int lastRow) {
+		int bandRows = Math.max(1, bandPixels / Math.max(width, 1));
+		if (executor == null || lastRow - firstRow <= bandRows) {
+			convertBand(image, firstRow, lastRow);
+			return;
+		}
+		List<Callable<Void>> bands = new ArrayList<>();
+		for (int row = firstRow; row < lastRow; row += bandRows) {
+			int first = row;
+			int last = Math.min(row + bandRows, lastRow);
+			bands.add(() -> {
+				convertBand(image, first, last);
+				return null;
+			});
+		}
+		try {
+			for (Future<Void> future : executor.invokeAll(bands))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			convertBand(image, firstRow, lastRow);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public long memoryUsage() {
+		return 3L * luminance.length;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+Parallel PNG encoder
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class PngEncoder {
+	private static final ExecutorService sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+		Thread thread = new Thread(runnable, "PngEncoder");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	private static final int dictionarySize = 32768;
+	private static final int bandBytes = 131072;
+	private final ExecutorService executor;
+	private final int level;
+
+	PngEncoder(int level) {
+		this(level, sharedExecutor);
+	}
+
+	PngEncoder(int level, ExecutorService executor) {
+		this.level = level;
+		this.executor = executor;
+	}
+
+	private static boolean opaque(PixelBuffer image) {
+		for (int i = 0; i < image.width * image.height; ++i)
+			if (image.pixels[i] >>> 24 != 0xff)
+				return false;
+		return true;
+	}
+
+	private static void unpack(int[] pixels, int offset, int width, int channels, byte[] row) {
+		for (int x = 0, i = 0; x < width; ++x) {
+			int pixel = pixels[offset + x];
+			row[i++] = (byte) (pixel >> 16);
+			row[i++] = (byte) (pixel >> 8);
+			row[i++] = (byte) pixel;
+			if (channels == 4)
+				row[i++] = (byte) (pixel >> 24);
+		}
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc)
+			return a;
+		if (pb <= pc)
+			return b;
+		return c;
+	}
+
+	// choose the filter with the smallest sum of absolute differences per row
+	private static void filter(byte[] cur, byte[] prev, int channels, byte[] out, int pos, byte[][] candidates) {
+		int length = cur.length;
+		int bestType = 0;
+		long bestSum = Long.MAX_VALUE;
+		for (int type = 0; type < 5; ++type) {
+			byte[] candidate = candidates[type];
+			long sum = 0;
+			for (int i = 0; i < length; ++i) {
+				int x = cur[i] & 255;
+				int a = i >= channels ? cur[i - channels] & 255 : 0;
+				int b = prev != null ? prev[i] & 255 : 0;
+				int c = i >= channels && prev != null ? prev[i - channels] & 255 : 0;
+				int value;
+				switch (type) {
+					case 1:
+						value = x - a;
+						break;
+					case 2:
+						value = x - b;
+						break;
+					case 3:
+						value = x - ((a + b) >> 1);
+						break;
+					case 4:
+						value = x - paeth(a, b, c);
+						break;
+					default:
+						value = x;
+				}
+				candidate[i] = (byte) value;
+				int signed = (byte) value;
+				sum += Math.abs(signed);
+			}
+			if (sum < bestSum) {
+				bestSum = sum;
+				bestType = type;
+			}
+		}
+		out[pos] = (byte) bestType;
+		System.arraycopy(candidates[bestType], 0, out, pos + 1, length);
+	}
+
+	private static byte[] filterBand(PixelBuffer image, int channels, int firstRow, int lastRow) {
+		int rowBytes = image.width * channels;
+		byte[] raw = new byte[(lastRow - firstRow) * (rowBytes + 1)];
+		byte[] cur = new byte[rowBytes];
+		byte[] prev = null;
+		byte[][] candidates = new byte[5][rowBytes];
+		if (firstRow > 0) {
+			prev = new byte[rowBytes];
+			unpack(image.pixels, (firstRow - 1) * image.width, image.width, channels, prev);
+		}
+		for (int row = firstRow; row < lastRow; ++row) {
+			unpack(image.pixels, row * image.width, image.width, channels, cur);
+			filter(cur, prev, channels, raw, (row - firstRow) * (rowBytes + 1), candidates);
+			if (prev == null)
+				prev = new byte[rowBytes];
+			byte[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return raw;
+	}
+
+	private byte[] deflateBand(byte[] raw, byte[] previous, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		if (previous != null) {
+			int length = Math.min(previous.length, dictionarySize);
+			deflater.setDictionary(previous, previous.length - length, length);
+		}
+		deflater.setInput(raw);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+		byte[] buffer = new byte[65536];
+		if (last) {
+			deflater.finish();
+			while (!deflater.finished())
+				out.write(buffer, 0, deflater.deflate(buffer));
+		} else {
+			// sync flush ends the band on a byte boundary so bands can be concatenated
+			int count;
+			do {
+				count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+				out.write(buffer, 0, count);
+			} while (count == buffer.length);
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static long adler32Combine(long adler1, long adler2, long length2) {
+		final long base = 65521;
+		long remainder = length2 % base;
+		long sum1 = adler1 & 0xffff;
+		long sum2 = (remainder * sum1) % base;
+		sum1 += (adler2 & 0xffff) + base - 1;
+		sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - remainder;
+		if (sum1 >= base)
+			sum1 -= base;
+		if (sum1 >= base)
+			sum1 -= base;
+		if (sum2 >= base << 1)
+			sum2 -= base << 1;
+		if (sum2 >= base)
+			sum2 -= base;
+		return sum1 | (sum2 << 16);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+		byte[] name = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, offset, length);
+		writeInt(out, length);
+		out.write(name);
+		out.write(data, offset, length);
+		writeInt(out, (int) crc.getValue());
+	}
+
+	private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+		List<T> results = new ArrayList<>(futures.size());
+		try {
+			for (Future<T> future : futures)
+				results.add(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		return results;
+	}
+
+	public void encode(PixelBuffer image, OutputStream stream) throws IOException {
+		OutputStream out = new BufferedOutputStream(stream, 65536);
+		int width = image.width;
+		int height = image.height;
+		int channels = opaque(image) ? 3 : 4;
+		int rowBytes = width * channels + 1;
+		int bandRows = Math.max(1, bandBytes / rowBytes);
+		int bandCount = (height + bandRows - 1) / bandRows;
+		List<Future<byte[]>> filtering = new ArrayList<>(bandCount);
+		for (int band = 0; band < bandCount; ++band) {
+			int firstRow = band * bandRows;
+			int lastRow = Math.min(firstRow + bandRows, height);
+			filtering.add(executor.submit(() -> filterBand(image, channels, firstRow, lastRow)));
+		}
+		List<byte[]> raw = await(filtering);
+		List<Future<byte[]>> deflating = new ArrayList<>(bandCount);
+		for (int band = 0; band < bandCount; ++band) {
+			byte[] current = raw.get(band);
+			byte[] previous = band > 0 ? raw.get(band - 1) : null;
+			boolean last = band == bandCount - 1;
+			Callable<byte[]> task = () -> deflateBand(current, previous, last);
+			deflating.add(executor.submit(task));
+		}
+		long adler = 1;
+		for (byte[] band : raw) {
+			Adler32 checksum = new Adler32();
+			checksum.update(band);
+			adler = adler32Combine(adler, checksum.getValue(), band.length);
+		}
+		List<byte[]> compressed = await(deflating);
+		out.write(signature);
+		byte[] header = new byte[13];
+		header[0] = (byte) (width >>> 24);
+		header[1] = (byte) (width >>> 16);
+		header[2] = (byte) (width >>> 8);
+		header[3] = (byte) width;
+		header[4] = (byte) (height >>> 24);
+		header[5] = (byte) (height >>> 16);
+		header[6] = (byte) (height >>> 8);
+		header[7] = (byte) height;
+		header[8] = 8;
+		header[9] = (byte) (channels == 4 ? 6 : 2);
+		writeChunk(out, "IHDR", header, 0, header.length);
+		int compression = level < 0 ? 2 : level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+		int cmf = 0x78;
+		int flg = compression << 6;
+		flg += 31 - ((cmf << 8) + flg) % 31;
+		writeChunk(out, "IDAT", new byte[]{(byte) cmf, (byte) flg}, 0, 2);
+		for (byte[] band : compressed)
+			writeChunk(out, "IDAT", band, 0, band.length);
+		byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+		writeChunk(out, "IDAT", trailer, 0, trailer.length);
+		writeChunk(out, "IEND", new byte[0], 0, 0);
+		out.flush();
+	}
+
+	public byte[] encode(PixelBuffer image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encode(image, out);
+		return out.toByteArray();
+	}
+}
@@ -7,7 +7,8 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 package xdsopl.robot36;
 
 public class RGBDecoder implements Mode {
-	private final ExponentialMovingAverage lowPassFilter;
+	private final float lowPassAlpha;
+	private final Interpolator interpolator;
 	private final int horizontalPixels;
 	private final int verticalPixels;
 	private final int firstSyncPulseIndex;
@@ -38,7 +39,8 @@ public class RGBDecoder implements Mode {
 		blueBeginSamples = (int) Math.round(blueBeginSeconds * sampleRate) - beginSamples;
 		blueSamples = (int) Math.round((blueEndSeconds - blueBeginSeconds) * sampleRate);
 		endSamples = (int) Math.round(endSeconds * sampleRate);
-		lowPassFilter = new ExponentialMovingAverage();
+		lowPassAlpha = ExponentialMovingAverage.cutoffAlpha(horizontalPixels, 2 * greenSamples, 2);
+		interpolator = Interpolator.CUBIC;
 	}
 
 	private float freqToLevel(float frequency, float offset) {
@@ -81,27 +83,40 @@ public class RGBDecoder implements Mode {
 	}
 
 	@Override
-	public void reset() {
+	public boolean isYUV() {
+		return false;
 	}
 
 	@Override
-	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int syncPulseIndex, int scanLineSamples, float frequencyOffset) {
-		if (syncPulseIndex + beginSamples < 0 || syncPulseIndex + endSamples > scanLineBuffer.length)
+	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int previewWidth, boolean yuv, double syncPulseIndex, double scanLineSamples, float frequencyOffset) {
+		float scale = (float) (scanLineSamples / this.scanLineSamples);
+		int syncPulsePos = (int) Math.floor(syncPulseIndex);
+		float syncPulseFrac = (float) (syncPulseIndex - syncPulsePos);
+		int firstSample = (int) Math.floor(syncPulseFrac + beginSamples * scale) - interpolator.before() - 1;
+		int lastSample = (int) Math.ceil(syncPulseFrac + endSamples * scale) + interpolator.after() + 1;
+		if (syncPulsePos + firstSample < 0 || syncPulsePos + lastSample > scanLineBuffer.length || lastSample - firstSample > scratchBuffer.length)
 			return false;
-		lowPassFilter.cutoff(horizontalPixels, 2 * greenSamples, 2);
-		lowPassFilter.reset();
-		for (int i = 0; i < endSamples - beginSamples; ++i)
-			scratchBuffer[i] = lowPassFilter.avg(scanLineBuffer[syncPulseIndex + beginSamples + i]);
-		lowPassFilter.reset();
-		for (int i = endSamples - beginSamples - 1; i >= 0; --i)
-			scratchBuffer[i] = freqToLevel(lowPassFilter.avg(scratchBuffer[i]), frequencyOffset);
-		for (int i = 0; i < horizontalPixels; ++i) {
-			int redPos = redBeginSamples + (i * redSamples) / horizontalPixels;
-			int greenPos = greenBeginSamples + (i * greenSamples) / horizontalPixels;
-			int bluePos = blueBeginSamples + (i * blueSamples) / horizontalPixels;
-			pixelBuffer.pixels[i] = ColorConverter.RGB(scratchBuffer[redPos], scratchBuffer[greenPos], scratchBuffer[bluePos]);
+		int columns = previewWidth > 0 ? Math.min(horizontalPixels, previewWidth) : horizontalPixels;
+		float avg = 0;
+		for (int i = firstSample; i < lastSample; ++i)
+			scratchBuffer[i - firstSample] = avg += lowPassAlpha * (scanLineBuffer[syncPulsePos + i] - avg);
+		avg = 0;
+		for (int i = lastSample - firstSample - 1; i >= 0; --i)
+			scratchBuffer[i] = freqToLevel(avg += lowPassAlpha * (scratchBuffer[i] - avg), frequencyOffset);
+		float offset = syncPulseFrac - firstSample;
+		float redBegin = offset + (beginSamples + redBeginSamples) * scale;
+		float greenBegin = offset + (beginSamples + greenBeginSamples) * scale;
+		float blueBegin = offset + (beginSamples + blueBeginSamples) * scale;
+		float redStep = redSamples * scale / columns;
+		float greenStep = greenSamples * scale / columns;
+		float blueStep = blueSamples * scale / columns;
+		for (int i = 0; i < columns; ++i) {
+			float red = interpolator.sample(scratchBuffer, redBegin + i * redStep);
+			float green = interpolator.sample(scratchBuffer, greenBegin + i * greenStep);
+			float blue = interpolator.sample(scratchBuffer, blueBegin + i * blueStep);
+			pixelBuffer.pixels[i] = ColorConverter.RGB(red, green, blue);
 		}
-		pixelBuffer.width = horizontalPixels;
+		pixelBuffer.width = columns;
 		pixelBuffer.height = 1;
 		return true;
 	}
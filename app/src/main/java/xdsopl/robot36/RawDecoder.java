@@ -7,7 +7,7 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 package xdsopl.robot36;
 
 public class RawDecoder implements Mode {
-	private final ExponentialMovingAverage lowPassFilter;
+	private final Interpolator interpolator;
 	private final int smallPictureMaxSamples;
 	private final int mediumPictureMaxSamples;
 	private final String name;
@@ -16,7 +16,7 @@ public class RawDecoder implements Mode {
 		this.name = name;
 		smallPictureMaxSamples = (int) Math.round(0.125 * sampleRate);
 		mediumPictureMaxSamples = (int) Math.round(0.175 * sampleRate);
-		lowPassFilter = new ExponentialMovingAverage();
+		interpolator = Interpolator.CUBIC;
 	}
 
 	private float freqToLevel(float frequency, float offset) {
@@ -59,29 +59,34 @@ public class RawDecoder implements Mode {
 	}
 
 	@Override
-	public void reset() {
+	public boolean isYUV() {
+		return false;
 	}
 
 	@Override
-	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int syncPulseIndex, int scanLineSamples, float frequencyOffset) {
-		if (syncPulseIndex < 0 || syncPulseIndex + scanLineSamples > scanLineBuffer.length)
+	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int previewWidth, boolean yuv, double syncPulseIndex, double scanLineSamples, float frequencyOffset) {
+		int syncPulsePos = (int) Math.floor(syncPulseIndex);
+		float syncPulseFrac = (float) (syncPulseIndex - syncPulsePos);
+		int firstSample = -interpolator.before() - 1;
+		int lastSample = (int) Math.ceil(syncPulseFrac + scanLineSamples) + interpolator.after() + 1;
+		if (syncPulsePos + firstSample < 0 || syncPulsePos + lastSample > scanLineBuffer.length || lastSample - firstSample > scratchBuffer.length)
 			return false;
 		int horizontalPixels = scopeBufferWidth;
 		if (scanLineSamples < smallPictureMaxSamples)
 			horizontalPixels /= 2;
 		if (scanLineSamples < mediumPictureMaxSamples)
 			horizontalPixels /= 2;
-		lowPassFilter.cutoff(horizontalPixels, 2 * scanLineSamples, 2);
-		lowPassFilter.reset();
-		for (int i = 0; i < scanLineSamples; ++i)
-			scratchBuffer[i] = lowPassFilter.avg(scanLineBuffer[syncPulseIndex + i]);
-		lowPassFilter.reset();
-		for (int i = scanLineSamples - 1; i >= 0; --i)
-			scratchBuffer[i] = freqToLevel(lowPassFilter.avg(scratchBuffer[i]), frequencyOffset);
-		for (int i = 0; i < horizontalPixels; ++i) {
-			int position = (i * scanLineSamples) / horizontalPixels;
-			pixelBuffer.pixels[i] = ColorConverter.GRAY(scratchBuffer[position]);
-		}
+		float lowPassAlpha = ExponentialMovingAverage.cutoffAlpha(horizontalPixels, 2 * scanLineSamples, 2);
+		float avg = 0;
+		for (int i = firstSample; i < lastSample; ++i)
+			scratchBuffer[i - firstSample] = avg += lowPassAlpha * (scanLineBuffer[syncPulsePos + i] - avg);
+		avg = 0;
+		for (int i = lastSample - firstSample - 1; i >= 0; --i)
+			scratchBuffer[i] = freqToLevel(avg += lowPassAlpha * (scratchBuffer[i] - avg), frequencyOffset);
+		float offset = syncPulseFrac - firstSample;
+		float step = (float) scanLineSamples / horizontalPixels;
+		for (int i = 0; i < horizontalPixels; ++i)
+			pixelBuffer.pixels[i] = ColorConverter.GRAY(interpolator.sample(scratchBuffer, offset + i * step));
 		pixelBuffer.width = horizontalPixels;
 		pixelBuffer.height = 1;
 		return true;
@@ -0,0 +1,82 @@
+/*
+Raw image file
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+public class RawImage {
+	public static final String EXTENSION = ".r36";
+	static final int MAGIC = 0x52333649; // "R36I"
+	static final int HEADER_BYTES = 12;
+	private final ByteBuffer header;
+	private ByteBuffer body;
+
+	RawImage() {
+		header = ByteBuffer.allocateDirect(HEADER_BYTES).order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private ByteBuffer body(int bytes) {
+		if (body == null || body.capacity() < bytes)
+			body = ByteBuffer.allocateDirect(bytes).order(ByteOrder.BIG_ENDIAN);
+		body.clear();
+		body.limit(bytes);
+		return body;
+	}
+
+	public void write(FileChannel channel, PixelBuffer image) throws IOException {
+		int count = image.width * image.height;
+		header.clear();
+		header.putInt(MAGIC).putInt(image.width).putInt(image.height).flip();
+		ByteBuffer pixels = body(4 * count);
+		pixels.asIntBuffer().put(image.pixels, 0, count);
+		ByteBuffer[] buffers = {header, pixels};
+		long remaining = HEADER_BYTES + 4L * count;
+		while (remaining > 0)
+			remaining -= channel.write(buffers);
+	}
+
+	public void write(File file, PixelBuffer image) throws IOException {
+		try (FileOutputStream stream = new FileOutputStream(file)) {
+			write(stream.getChannel(), image);
+		}
+	}
+
+	public PixelBuffer read(FileChannel channel) throws IOException {
+		header.clear();
+		while (header.hasRemaining())
+			if (channel.read(header) < 0)
+				throw new IOException("truncated header");
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException("not a raw image");
+		int width = header.getInt();
+		int height = header.getInt();
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4)
+			throw new IOException("bad dimensions");
+		PixelBuffer image = new PixelBuffer(width, height);
+		ByteBuffer pixels = body(4 * width * height);
+		while (pixels.hasRemaining())
+			if (channel.read(pixels) < 0)
+				throw new IOException("truncated pixels");
+		pixels.flip();
+		pixels.asIntBuffer().get(image.pixels);
+		image.line = height;
+		return image;
+	}
+
+	public PixelBuffer read(File file) throws IOException {
+		try (FileInputStream stream = new FileInputStream(file)) {
+			return read(stream.getChannel());
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+Raw image to PNG converter
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RawImageConverter {
+	public interface Callback {
+		void converted(File raw, File png, IOException error);
+	}
+
+	private final ExecutorService executor;
+	private final RawImage rawImage;
+	private final PngEncoder pngEncoder;
+	private final Callback callback;
+
+	RawImageConverter(int level, Callback callback) {
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "RawImageConverter");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		rawImage = new RawImage();
+		pngEncoder = new PngEncoder(level);
+		this.callback = callback;
+	}
+
+	private void convertNow(File raw, File png) {
+		IOException error = null;
+		File partial = new File(png.getPath() + ".part");
+		try {
+			PixelBuffer image = rawImage.read(raw);
+			try (FileOutputStream stream = new FileOutputStream(partial)) {
+				pngEncoder.encode(image, stream);
+			}
+			if (!partial.renameTo(png))
+				throw new IOException("renaming " + partial + " failed");
+			if (!raw.delete())
+				throw new IOException("deleting " + raw + " failed");
+		} catch (IOException e) {
+			error = e;
+			//noinspection ResultOfMethodCallIgnored
+			partial.delete();
+		}
+		if (callback != null)
+			callback.converted(raw, png, error);
+	}
+
+	public Future<?> convert(File raw, File png) {
+		return executor.submit(() -> convertNow(raw, png));
+	}
+
+	// PNGs left over without their raw image were converted but never published, they go straight to the callback
+	public List<Future<?>> convertAll(File directory) {
+		List<Future<?>> futures = new ArrayList<>();
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(RawImage.EXTENSION) || name.endsWith(".png"));
+		if (files == null)
+			return futures;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(RawImage.EXTENSION)) {
+				name = name.substring(0, name.length() - RawImage.EXTENSION.length()) + ".png";
+				futures.add(convert(file, new File(directory, name)));
+				continue;
+			}
+			File raw = new File(directory, name.substring(0, name.length() - 4) + RawImage.EXTENSION);
+			if (!raw.exists() && callback != null)
+				futures.add(executor.submit(() -> callback.converted(raw, file, null)));
+		}
+		return futures;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,246 @@
+/*
+Multi channel receiver engine
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReceiverEngine {
+	private final ExecutorService executor;
+	private final CopyOnWriteArrayList<Stream> streams;
+	private final int blockSize;
+	private final int maxQueuedBlocks;
+	private final int batchBlocks;
+	private final long created;
+	// totals of removed streams, guarded by this
+	private long removedSamples;
+	private long removedDropped;
+	private double removedSeconds;
+
+	public class Stream implements Runnable {
+		public final Decoder decoder;
+		public final PixelBuffer imageBuffer;
+		public final int sampleRate;
+		private final ConcurrentLinkedQueue<float[]> queue;
+		private final ConcurrentLinkedQueue<float[]> spare;
+		private final ConcurrentLinkedQueue<Long> enqueued;
+		private final AtomicBoolean scheduled;
+		private final AtomicInteger queued;
+		private final AtomicLong samples;
+		private final AtomicLong dropped;
+		private final AtomicLong busyNanos;
+		private final AtomicLong lagNanos;
+		private final int channelSelect;
+		private final int channels;
+		private float[] pending;
+		private int pendingLength;
+		private volatile boolean cancelled;
+
+		Stream(int sampleRate, int channelSelect) {
+			this.sampleRate = sampleRate;
+			this.channelSelect = channelSelect;
+			channels = channelSelect > 0 ? 2 : 1;
+			// a single scope row is enough when nobody looks at it
+			PixelBuffer scopeBuffer = new PixelBuffer(320, 1);
+			imageBuffer = new PixelBuffer(800, 616);
+			decoder = new Decoder(scopeBuffer, imageBuffer, "Raw", sampleRate);
+			queue = new ConcurrentLinkedQueue<>();
+			spare = new ConcurrentLinkedQueue<>();
+			enqueued = new ConcurrentLinkedQueue<>();
+			scheduled = new AtomicBoolean();
+			queued = new AtomicInteger();
+			samples = new AtomicLong();
+			dropped = new AtomicLong();
+			busyNanos = new AtomicLong();
+			lagNanos = new AtomicLong();
+		}
+
+		private float[] obtain() {
+			float[] block = spare.poll();
+			return block != null ? block : new float[blockSize * channels];
+		}
+
+		private void enqueue(float[] block) {
+			if (cancelled) {
+				spare.offer(block);
+				return;
+			}
+			if (queued.get() >= maxQueuedBlocks) {
+				dropped.incrementAndGet();
+				spare.offer(block);
+				return;
+			}
+			queued.incrementAndGet();
+			enqueued.offer(System.nanoTime());
+			queue.offer(block);
+			if (scheduled.compareAndSet(false, true))
+				executor.execute(this);
+		}
+
+		// called by a single producer per stream, interleaved frames when stereo
+		public void write(float[] buffer, int offset, int length) {
+			while (length > 0) {
+				if (pending == null) {
+					pending = obtain();
+					pendingLength = 0;
+				}
+				int count = Math.min(length, pending.length - pendingLength);
+				System.arraycopy(buffer, offset, pending, pendingLength, count);
+				pendingLength += count;
+				offset += count;
+				length -= count;
+				if (pendingLength == pending.length) {
+					enqueue(pending);
+					pending = null;
+				}
+			}
+		}
+
+		// keeps the decoder on this worker for a batch of blocks before giving the thread to other streams
+		@Override
+		public void run() {
+			long begin = System.nanoTime();
+			for (int i = 0; i < batchBlocks && !cancelled; ++i) {
+				float[] block = queue.poll();
+				if (block == null)
+					break;
+				Long time = enqueued.poll();
+				if (time != null)
+					lagNanos.set(System.nanoTime() - time);
+				queued.decrementAndGet();
+				decoder.process(block, channelSelect);
+				if (imageBuffer.line >= imageBuffer.height)
+					imageBuffer.line = -1;
+				samples.addAndGet(block.length / channels);
+				spare.offer(block);
+			}
+			busyNanos.addAndGet(System.nanoTime() - begin);
+			if (cancelled) {
+				queue.clear();
+				enqueued.clear();
+				queued.set(0);
+			}
+			scheduled.set(false);
+			if (!cancelled && !queue.isEmpty() && scheduled.compareAndSet(false, true))
+				executor.execute(this);
+		}
+
+		public long samples() {
+			return samples.get();
+		}
+
+		public long dropped() {
+			return dropped.get();
+		}
+
+		public int queued() {
+			return queued.get();
+		}
+
+		public double lagMillis() {
+			return lagNanos.get() / 1e6;
+		}
+
+		public double busySeconds() {
+			return busyNanos.get() / 1e9;
+		}
+
+		// how many times faster than real time this stream decodes while it is running
+		public double speed() {
+			double busy = busySeconds();
+			return busy > 0 ? samples() / (double) sampleRate / busy : 0;
+		}
+	}
+
+	ReceiverEngine(int blockSize, int maxQueuedBlocks) {
+		this(Runtime.getRuntime().availableProcessors(), blockSize, maxQueuedBlocks);
+	}
+
+	ReceiverEngine(int threads, int blockSize, int maxQueuedBlocks) {
+		this.blockSize = blockSize;
+		this.maxQueuedBlocks = maxQueuedBlocks;
+		batchBlocks = Math.max(1, maxQueuedBlocks / 2);
+		streams = new CopyOnWriteArrayList<>();
+		executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "ReceiverEngine");
+			thread.setDaemon(true);
+			return thread;
+		});
+		created = System.nanoTime();
+	}
+
+	public Stream addStream(int sampleRate, int channelSelect) {
+		Stream stream = new Stream(sampleRate, channelSelect);
+		streams.add(stream);
+		return stream;
+	}
+
+	// a batch already running stops after the block at hand, blocks still queued are dropped
+	public void removeStream(Stream stream) {
+		stream.cancelled = true;
+		synchronized (this) {
+			if (!streams.remove(stream))
+				return;
+			removedSamples += stream.samples();
+			removedDropped += stream.dropped();
+			removedSeconds += stream.samples() / (double) stream.sampleRate;
+		}
+	}
+
+	public Iterable<Stream> streams() {
+		return streams;
+	}
+
+	// totals over all streams so far, removed or not, so they never go down
+	public synchronized long samples() {
+		long sum = removedSamples;
+		for (Stream stream : streams)
+			sum += stream.samples();
+		return sum;
+	}
+
+	public synchronized long dropped() {
+		long sum = removedDropped;
+		for (Stream stream : streams)
+			sum += stream.dropped();
+		return sum;
+	}
+
+	public int queued() {
+		int sum = 0;
+		for (Stream stream : streams)
+			sum += stream.queued();
+		return sum;
+	}
+
+	public double maxLagMillis() {
+		double max = 0;
+		for (Stream stream : streams)
+			max = Math.max(max, stream.lagMillis());
+		return max;
+	}
+
+	// seconds of audio decoded over all streams per second of wall time
+	public synchronized double realTimeFactor() {
+		double seconds = removedSeconds;
+		for (Stream stream : streams)
+			seconds += stream.samples() / (double) stream.sampleRate;
+		double elapsed = (System.nanoTime() - created) / 1e9;
+		return elapsed > 0 ? seconds / elapsed : 0;
+	}
+
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+}
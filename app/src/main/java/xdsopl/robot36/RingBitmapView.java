@@ -0,0 +1,106 @@
+/*
+Scrolling view of a ring of rows
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+public class RingBitmapView extends View {
+	private final Paint paint;
+	private final Rect source;
+	private final Rect target;
+	private Bitmap bitmap;
+	private boolean keepAspect;
+	// the oldest row of the bitmap, drawn at the top of the view
+	private int head;
+	private int bufferLine;
+	private long bufferRows;
+
+	public RingBitmapView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+		source = new Rect();
+		target = new Rect();
+	}
+
+	// shows the newest rows of the buffer, which is a ring ending at buffer.line
+	public void setBitmap(Bitmap bitmap, boolean keepAspect, PixelBuffer buffer) {
+		this.bitmap = bitmap;
+		this.keepAspect = keepAspect;
+		head = 0;
+		bufferLine = (buffer.line - bitmap.getHeight() + buffer.height) % buffer.height;
+		bufferRows = buffer.rows;
+		upload(buffer, bitmap.getHeight());
+		invalidate();
+	}
+
+	// uploads only the rows added to the buffer since the last call and scrolls by moving the head
+	// after a full turn of the ring or more, all of it is new
+	public void update(PixelBuffer buffer) {
+		if (bitmap == null)
+			return;
+		long count = buffer.rows - bufferRows;
+		if (count <= 0)
+			return;
+		int rows = (int) Math.min(count, buffer.height);
+		bufferLine = (buffer.line - rows + buffer.height) % buffer.height;
+		bufferRows = buffer.rows;
+		upload(buffer, rows);
+		invalidate();
+	}
+
+	private void upload(PixelBuffer buffer, int count) {
+		int height = bitmap.getHeight();
+		int skip = Math.max(count - height, 0);
+		bufferLine = (bufferLine + skip) % buffer.height;
+		head = (head + skip) % height;
+		count -= skip;
+		while (count > 0) {
+			int rows = Math.min(count, Math.min(buffer.height - bufferLine, height - head));
+			bitmap.setPixels(buffer.pixels, bufferLine * buffer.width, buffer.width, 0, head, bitmap.getWidth(), rows);
+			bufferLine = (bufferLine + rows) % buffer.height;
+			head = (head + rows) % height;
+			count -= rows;
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (bitmap == null)
+			return;
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int left = getPaddingLeft();
+		int top = getPaddingTop();
+		float viewWidth = getWidth() - left - getPaddingRight();
+		float viewHeight = getHeight() - top - getPaddingBottom();
+		float scaleX = viewWidth / width;
+		float scaleY = viewHeight / height;
+		if (keepAspect) {
+			scaleX = scaleY = Math.min(scaleX, scaleY);
+			left += Math.round((viewWidth - scaleX * width) / 2);
+			top += Math.round((viewHeight - scaleY * height) / 2);
+		}
+		int right = left + Math.round(scaleX * width);
+		int split = top + Math.round(scaleY * (height - head));
+		int bottom = top + Math.round(scaleY * height);
+		source.set(0, head, width, height);
+		target.set(left, top, right, split);
+		canvas.drawBitmap(bitmap, source, target, paint);
+		if (head > 0) {
+			source.set(0, 0, width, head);
+			target.set(left, split, right, bottom);
+			canvas.drawBitmap(bitmap, source, target, paint);
+		}
+	}
+}
@@ -7,7 +7,8 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 package xdsopl.robot36;
 
 public class Robot_36_Color implements Mode {
-	private final ExponentialMovingAverage lowPassFilter;
+	private final float lowPassAlpha;
+	private final Interpolator interpolator;
 	private final int horizontalPixels;
 	private final int verticalPixels;
 	private final int scanLineSamples;
@@ -19,7 +20,6 @@ public class Robot_36_Color implements Mode {
 	private final int separatorBeginSamples;
 	private final int chrominanceBeginSamples;
 	private final int endSamples;
-	private boolean lastEven;
 
 	@SuppressWarnings("UnnecessaryLocalVariable")
 	Robot_36_Color(int sampleRate) {
@@ -46,7 +46,8 @@ public class Robot_36_Color implements Mode {
 		chrominanceBeginSamples = (int) Math.round(chrominanceBeginSeconds * sampleRate);
 		double chrominanceEndSeconds = chrominanceBeginSeconds + chrominanceSeconds;
 		endSamples = (int) Math.round(chrominanceEndSeconds * sampleRate);
-		lowPassFilter = new ExponentialMovingAverage();
+		lowPassAlpha = ExponentialMovingAverage.cutoffAlpha(horizontalPixels, 2 * luminanceSamples, 2);
+		interpolator = Interpolator.CUBIC;
 	}
 
 	private float freqToLevel(float frequency, float offset) {
@@ -89,45 +90,62 @@ public class Robot_36_Color implements Mode {
 	}
 
 	@Override
-	public void reset() {
-		lastEven = false;
+	public boolean isYUV() {
+		return true;
 	}
 
 	@Override
-	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int syncPulseIndex, int scanLineSamples, float frequencyOffset) {
-		if (syncPulseIndex + beginSamples < 0 || syncPulseIndex + endSamples > scanLineBuffer.length)
+	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int previewWidth, boolean yuv, double syncPulseIndex, double scanLineSamples, float frequencyOffset) {
+		float scale = (float) (scanLineSamples / this.scanLineSamples);
+		int syncPulsePos = (int) Math.floor(syncPulseIndex);
+		float syncPulseFrac = (float) (syncPulseIndex - syncPulsePos);
+		int firstSample = (int) Math.floor(syncPulseFrac + beginSamples * scale) - interpolator.before() - 1;
+		int lastSample = (int) Math.ceil(syncPulseFrac + endSamples * scale) + interpolator.after() + 1;
+		if (syncPulsePos + firstSample < 0 || syncPulsePos + lastSample > scanLineBuffer.length || lastSample - firstSample > scratchBuffer.length)
 			return false;
+		int columns = previewWidth > 0 ? Math.min(horizontalPixels, previewWidth) : horizontalPixels;
+		int separatorPos = syncPulsePos + Math.round(syncPulseFrac + separatorBeginSamples * scale);
 		float separator = 0;
 		for (int i = 0; i < separatorSamples; ++i)
-			separator += scanLineBuffer[syncPulseIndex + separatorBeginSamples + i];
+			separator += scanLineBuffer[separatorPos + i];
 		separator /= separatorSamples;
 		separator -= frequencyOffset;
 		boolean even = separator < 0;
+		// the parity of the previous line is kept in the caller's pixel buffer, reset it to -1 for a new image
 		if (separator < -1.1 || separator > -0.9 && separator < 0.9 || separator > 1.1)
-			even = !lastEven;
-		lastEven = even;
-		lowPassFilter.cutoff(horizontalPixels, 2 * luminanceSamples, 2);
-		lowPassFilter.reset();
-		for (int i = beginSamples; i < endSamples; ++i)
-			scratchBuffer[i] = lowPassFilter.avg(scanLineBuffer[syncPulseIndex + i]);
-		lowPassFilter.reset();
-		for (int i = endSamples - 1; i >= beginSamples; --i)
-			scratchBuffer[i] = freqToLevel(lowPassFilter.avg(scratchBuffer[i]), frequencyOffset);
-		for (int i = 0; i < horizontalPixels; ++i) {
-			int luminancePos = luminanceBeginSamples + (i * luminanceSamples) / horizontalPixels;
-			int chrominancePos = chrominanceBeginSamples + (i * chrominanceSamples) / horizontalPixels;
+			even = pixelBuffer.line != 0;
+		pixelBuffer.line = even ? 0 : 1;
+		float avg = 0;
+		for (int i = firstSample; i < lastSample; ++i)
+			scratchBuffer[i - firstSample] = avg += lowPassAlpha * (scanLineBuffer[syncPulsePos + i] - avg);
+		avg = 0;
+		for (int i = lastSample - firstSample - 1; i >= 0; --i)
+			scratchBuffer[i] = freqToLevel(avg += lowPassAlpha * (scratchBuffer[i] - avg), frequencyOffset);
+		float offset = syncPulseFrac - firstSample;
+		float luminanceBegin = offset + luminanceBeginSamples * scale;
+		float luminanceStep = luminanceSamples * scale / columns;
+		float chrominanceBegin = offset + chrominanceBeginSamples * scale;
+		float chrominanceStep = chrominanceSamples * scale / columns;
+		for (int i = 0; i < columns; ++i) {
+			float luminance = interpolator.sample(scratchBuffer, luminanceBegin + i * luminanceStep);
+			float chrominance = interpolator.sample(scratchBuffer, chrominanceBegin + i * chrominanceStep);
 			if (even) {
-				pixelBuffer.pixels[i] = ColorConverter.RGB(scratchBuffer[luminancePos], 0, scratchBuffer[chrominancePos]);
+				pixelBuffer.pixels[i] = ColorConverter.RGB(luminance, 0, chrominance);
+			} else if (yuv) {
+				int evenYUV = pixelBuffer.pixels[i];
+				int oddYUV = ColorConverter.RGB(luminance, chrominance, 0);
+				pixelBuffer.pixels[i] = (evenYUV & 0xffff00ff) | (oddYUV & 0x0000ff00);
+				pixelBuffer.pixels[i + columns] = (oddYUV & 0xffffff00) | (evenYUV & 0x000000ff);
 			} else {
 				int evenYUV = pixelBuffer.pixels[i];
-				int oddYUV = ColorConverter.RGB(scratchBuffer[luminancePos], scratchBuffer[chrominancePos], 0);
+				int oddYUV = ColorConverter.RGB(luminance, chrominance, 0);
 				pixelBuffer.pixels[i] =
 					ColorConverter.YUV2RGB((evenYUV & 0x00ff00ff) | (oddYUV & 0x0000ff00));
-				pixelBuffer.pixels[i + horizontalPixels] =
+				pixelBuffer.pixels[i + columns] =
 					ColorConverter.YUV2RGB((oddYUV & 0x00ffff00) | (evenYUV & 0x000000ff));
 			}
 		}
-		pixelBuffer.width = horizontalPixels;
+		pixelBuffer.width = columns;
 		pixelBuffer.height = 2;
 		return !even;
 	}
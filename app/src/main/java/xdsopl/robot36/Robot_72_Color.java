@@ -7,7 +7,8 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 package xdsopl.robot36;
 
 public class Robot_72_Color implements Mode {
-	private final ExponentialMovingAverage lowPassFilter;
+	private final float lowPassAlpha;
+	private final Interpolator interpolator;
 	private final int horizontalPixels;
 	private final int verticalPixels;
 	private final int scanLineSamples;
@@ -44,7 +45,8 @@ public class Robot_72_Color implements Mode {
 		uBeginSamples = (int) Math.round(uBeginSeconds * sampleRate);
 		double uEndSeconds = uBeginSeconds + chrominanceSeconds;
 		endSamples = (int) Math.round(uEndSeconds * sampleRate);
-		lowPassFilter = new ExponentialMovingAverage();
+		lowPassAlpha = ExponentialMovingAverage.cutoffAlpha(horizontalPixels, 2 * luminanceSamples, 2);
+		interpolator = Interpolator.CUBIC;
 	}
 
 	private float freqToLevel(float frequency, float offset) {
@@ -87,27 +89,39 @@ public class Robot_72_Color implements Mode {
 	}
 
 	@Override
-	public void reset() {
+	public boolean isYUV() {
+		return true;
 	}
 
 	@Override
-	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int syncPulseIndex, int scanLineSamples, float frequencyOffset) {
-		if (syncPulseIndex + beginSamples < 0 || syncPulseIndex + endSamples > scanLineBuffer.length)
+	public boolean decodeScanLine(PixelBuffer pixelBuffer, float[] scratchBuffer, float[] scanLineBuffer, int scopeBufferWidth, int previewWidth, boolean yuv, double syncPulseIndex, double scanLineSamples, float frequencyOffset) {
+		float scale = (float) (scanLineSamples / this.scanLineSamples);
+		int syncPulsePos = (int) Math.floor(syncPulseIndex);
+		float syncPulseFrac = (float) (syncPulseIndex - syncPulsePos);
+		int firstSample = (int) Math.floor(syncPulseFrac + beginSamples * scale) - interpolator.before() - 1;
+		int lastSample = (int) Math.ceil(syncPulseFrac + endSamples * scale) + interpolator.after() + 1;
+		if (syncPulsePos + firstSample < 0 || syncPulsePos + lastSample > scanLineBuffer.length || lastSample - firstSample > scratchBuffer.length)
 			return false;
-		lowPassFilter.cutoff(horizontalPixels, 2 * luminanceSamples, 2);
-		lowPassFilter.reset();
-		for (int i = beginSamples; i < endSamples; ++i)
-			scratchBuffer[i] = lowPassFilter.avg(scanLineBuffer[syncPulseIndex + i]);
-		lowPassFilter.reset();
-		for (int i = endSamples - 1; i >= beginSamples; --i)
-			scratchBuffer[i] = freqToLevel(lowPassFilter.avg(scratchBuffer[i]), frequencyOffset);
-		for (int i = 0; i < horizontalPixels; ++i) {
-			int yPos = yBeginSamples + (i * luminanceSamples) / horizontalPixels;
-			int uPos = uBeginSamples + (i * chrominanceSamples) / horizontalPixels;
-			int vPos = vBeginSamples + (i * chrominanceSamples) / horizontalPixels;
-			pixelBuffer.pixels[i] = ColorConverter.YUV2RGB(scratchBuffer[yPos], scratchBuffer[uPos], scratchBuffer[vPos]);
+		int columns = previewWidth > 0 ? Math.min(horizontalPixels, previewWidth) : horizontalPixels;
+		float avg = 0;
+		for (int i = firstSample; i < lastSample; ++i)
+			scratchBuffer[i - firstSample] = avg += lowPassAlpha * (scanLineBuffer[syncPulsePos + i] - avg);
+		avg = 0;
+		for (int i = lastSample - firstSample - 1; i >= 0; --i)
+			scratchBuffer[i] = freqToLevel(avg += lowPassAlpha * (scratchBuffer[i] - avg), frequencyOffset);
+		float offset = syncPulseFrac - firstSample;
+		float yBegin = offset + yBeginSamples * scale;
+		float uBegin = offset + uBeginSamples * scale;
+		float vBegin = offset + vBeginSamples * scale;
+		float luminanceStep = luminanceSamples * scale / columns;
+		float chrominanceStep = chrominanceSamples * scale / columns;
+		for (int i = 0; i < columns; ++i) {
+			float y = interpolator.sample(scratchBuffer, yBegin + i * luminanceStep);
+			float u = interpolator.sample(scratchBuffer, uBegin + i * chrominanceStep);
+			float v = interpolator.sample(scratchBuffer, vBegin + i * chrominanceStep);
+			pixelBuffer.pixels[i] = yuv ? ColorConverter.RGB(y, u, v) : ColorConverter.YUV2RGB(y, u, v);
 		}
-		pixelBuffer.width = horizontalPixels;
+		pixelBuffer.width = columns;
 		pixelBuffer.height = 1;
 		return true;
 	}
@@ -0,0 +1,52 @@
+/*
+Row scaler with precomputed column maps
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class RowScaler {
+	// maps only depend on the widths, so all decoders share them
+	private static final ConcurrentHashMap<Long, RowScaler> scalers = new ConcurrentHashMap<>();
+	public final int sourceWidth;
+	public final int destinationWidth;
+	private final int[] columns;
+	private final int[] weights;
+
+	private RowScaler(int sourceWidth, int destinationWidth) {
+		this.sourceWidth = sourceWidth;
+		this.destinationWidth = destinationWidth;
+		columns = new int[destinationWidth];
+		weights = new int[destinationWidth];
+		double scale = sourceWidth / (double) destinationWidth;
+		for (int x = 0; x < destinationWidth; ++x) {
+			double position = Math.min(Math.max((x + 0.5) * scale - 0.5, 0), sourceWidth - 1);
+			// the right neighbor always exists, at the last column it just gets all the weight
+			int column = Math.max(Math.min((int) position, sourceWidth - 2), 0);
+			columns[x] = column;
+			weights[x] = (int) Math.round(256 * (position - column));
+		}
+	}
+
+	public static RowScaler get(int sourceWidth, int destinationWidth) {
+		return scalers.computeIfAbsent((long) sourceWidth << 32 | destinationWidth, key -> new RowScaler(sourceWidth, destinationWidth));
+	}
+
+	// blends neighboring columns with 8 bit weights, red and blue are done together
+	public void scale(int[] source, int sourceOffset, int[] destination, int destinationOffset) {
+		int last = sourceWidth - 1;
+		for (int x = 0; x < destinationWidth; ++x) {
+			int column = sourceOffset + columns[x];
+			int left = source[column];
+			int right = source[Math.min(column + 1, sourceOffset + last)];
+			int weight = weights[x];
+			int rest = 256 - weight;
+			int redBlue = ((left & 0x00FF00FF) * rest + (right & 0x00FF00FF) * weight) >>> 8 & 0x00FF00FF;
+			int green = ((left & 0x0000FF00) * rest + (right & 0x0000FF00) * weight) >>> 8 & 0x0000FF00;
+			destination[destinationOffset + x] = left & 0xFF000000 | redBlue | green;
+		}
+	}
+}
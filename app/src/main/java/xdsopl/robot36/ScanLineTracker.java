@@ -0,0 +1,96 @@
+/*
+Scan line tracker
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class ScanLineTracker {
+	private final double phaseGain;
+	private final double periodGain;
+	private final int outlierLimit;
+	private double phase;
+	private double period;
+	private double error;
+	private int outliers;
+
+	ScanLineTracker(double phaseGain, int outlierLimit) {
+		this.phaseGain = phaseGain;
+		// critically damped second order loop
+		this.periodGain = phaseGain * phaseGain / (2 - phaseGain);
+		this.outlierLimit = outlierLimit;
+	}
+
+	public void reset(double phase, double period) {
+		this.phase = phase;
+		this.period = period;
+		error = 0;
+		outliers = 0;
+	}
+
+	public double phase() {
+		return phase;
+	}
+
+	public double period() {
+		return period;
+	}
+
+	public double previous() {
+		return phase - period;
+	}
+
+	public double predict() {
+		return phase + period;
+	}
+
+	public double error() {
+		return error;
+	}
+
+	public boolean lost() {
+		return outliers >= outlierLimit;
+	}
+
+	public void advance() {
+		phase += period;
+	}
+
+	public void shift(int shift) {
+		phase -= shift;
+	}
+
+	public boolean update(int pulse, double tolerance) {
+		long cycles = Math.max(1, Math.round((pulse - phase) / period));
+		double predicted = phase + cycles * period;
+		double deviation = pulse - predicted;
+		if (Math.abs(deviation) > tolerance) {
+			++outliers;
+			return false;
+		}
+		outliers = 0;
+		error = deviation;
+		phase = predicted + phaseGain * deviation;
+		period += periodGain * deviation / cycles;
+		return true;
+	}
+
+	public void save(DataOutput out) throws IOException {
+		out.writeDouble(phase);
+		out.writeDouble(period);
+		out.writeDouble(error);
+		out.writeInt(outliers);
+	}
+
+	public void restore(DataInput in, double scale) throws IOException {
+		phase = scale * in.readDouble();
+		period = scale * in.readDouble();
+		error = scale * in.readDouble();
+		outliers = in.readInt();
+	}
+}
@@ -6,6 +6,10 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class SchmittTrigger {
 	private final float low, high;
 	private boolean previous;
@@ -25,4 +29,12 @@ public class SchmittTrigger {
 		}
 		return previous;
 	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeBoolean(previous);
+	}
+
+	void restore(DataInput in) throws IOException {
+		previous = in.readBoolean();
+	}
 }
@@ -6,6 +6,10 @@ Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
 
 package xdsopl.robot36;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class SimpleMovingSum {
 	private final float[] tree;
 	private int leaf;
@@ -33,5 +37,23 @@ public class SimpleMovingSum {
 		add(input);
 		return sum();
 	}
-}
 
+	void save(DataOutput out) throws IOException {
+		out.writeInt(length);
+		out.writeInt(leaf);
+		Snapshot.writeFloats(out, tree, 0, 2 * length);
+	}
+
+	void restore(DataInput in) throws IOException {
+		int count = in.readInt();
+		int position = in.readInt();
+		if (count != length) {
+			Snapshot.skipFloats(in, 2 * count);
+			return;
+		}
+		if (position < length || position >= 2 * length)
+			throw new IOException("leaf out of range");
+		Snapshot.readFloats(in, tree, 0, 2 * length);
+		leaf = position;
+	}
+}
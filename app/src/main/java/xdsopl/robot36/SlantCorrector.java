@@ -0,0 +1,295 @@
+/*
+Slant corrector
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class SlantCorrector {
+	public interface Callback {
+		// the image goes back to the pool once this returns
+		void corrected(PixelBuffer image);
+	}
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SlantCorrector");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+	// demodulated frequencies are kept as 16 bit fixed point in the range of -4 to 4
+	private static final float quantizeScale = 8192;
+	private final ConcurrentLinkedQueue<short[]> spareChunks;
+	private final PixelBufferPool imagePool;
+	private final int chunkSamples;
+	private final int scratchBufferSamples;
+	private final int toleranceSamples;
+	private ArrayList<short[]> chunks;
+	private Callback callback;
+	// only touched by jobs, which run one after another on the executor
+	private PixelBuffer pixelBuffer;
+	private float[] scratchBuffer;
+	private float[] window;
+	private Mode mode;
+	private boolean active;
+	private boolean truncated;
+	private int recorded;
+	private int maxSamples;
+	private int limitSamples = Integer.MAX_VALUE;
+	private int base;
+	private int[] pulses;
+	private int[] lines;
+	private int pulseCount;
+	private double frequencyOffsetSum;
+
+	SlantCorrector(int sampleRate, int scratchBufferSamples, int toleranceSamples) {
+		this.chunkSamples = sampleRate;
+		this.scratchBufferSamples = scratchBufferSamples;
+		this.toleranceSamples = toleranceSamples;
+		spareChunks = new ConcurrentLinkedQueue<>();
+		imagePool = new PixelBufferPool(2);
+		chunks = new ArrayList<>();
+		pulses = new int[256];
+		lines = new int[256];
+	}
+
+	public void setCallback(Callback callback) {
+		this.callback = callback;
+		if (callback == null)
+			stop();
+	}
+
+	public void start(Mode mode, float[] scanLineBuffer, int currentSample) {
+		stop();
+		if (callback == null)
+			return;
+		this.mode = mode;
+		active = true;
+		truncated = false;
+		recorded = 0;
+		base = 0;
+		maxSamples = Math.min(maxSamples(mode, currentSample), limitSamples);
+		pulseCount = 0;
+		frequencyOffsetSum = 0;
+		write(scanLineBuffer, 0, currentSample);
+	}
+
+	// room for what was buffered before the first line, and a bit more than the 1% of skew the fit accepts
+	private static int maxSamples(Mode mode, int buffered) {
+		return buffered + (int) (1.02 * mode.getHeight() * mode.getScanLineSamples()) + mode.getScanLineSamples();
+	}
+
+	public void setLimit(int samples) {
+		limitSamples = samples;
+	}
+
+	public void stop() {
+		active = false;
+		spareChunks.addAll(chunks);
+		chunks.clear();
+	}
+
+	public void shift(int shift) {
+		base += shift;
+	}
+
+	public void write(float[] buffer, int offset, int length) {
+		if (!active || truncated)
+			return;
+		if (recorded + length > maxSamples) {
+			truncated = true;
+			return;
+		}
+		while (length > 0) {
+			int chunk = recorded / chunkSamples;
+			int pos = recorded % chunkSamples;
+			if (chunk >= chunks.size()) {
+				short[] spare = spareChunks.poll();
+				chunks.add(spare != null ? spare : new short[chunkSamples]);
+			}
+			short[] samples = chunks.get(chunk);
+			int count = Math.min(length, chunkSamples - pos);
+			for (int i = 0; i < count; ++i)
+				samples[pos + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Math.round(buffer[offset + i] * quantizeScale), Short.MAX_VALUE));
+			recorded += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public void addPulse(int index, double scanLineSamples, float frequencyOffset) {
+		if (!active || truncated)
+			return;
+		int pulse = index + base;
+		int line = 0;
+		if (pulseCount > 0) {
+			int last = pulses[pulseCount - 1];
+			if (pulse <= last)
+				return;
+			line = lines[pulseCount - 1] + (int) Math.max(1, Math.round((pulse - last) / scanLineSamples));
+		}
+		if (pulseCount >= pulses.length) {
+			pulses = Arrays.copyOf(pulses, 2 * pulses.length);
+			lines = Arrays.copyOf(lines, 2 * lines.length);
+		}
+		pulses[pulseCount] = pulse;
+		lines[pulseCount] = line;
+		++pulseCount;
+		frequencyOffsetSum += frequencyOffset;
+	}
+
+	public void finish(PixelBuffer imageBuffer) {
+		if (!active)
+			return;
+		active = false;
+		PixelBuffer image = imagePool.obtain(imageBuffer.width, imageBuffer.height);
+		System.arraycopy(imageBuffer.pixels, 0, image.pixels, 0, image.width * image.height);
+		Job job = new Job(callback, mode, chunks, recorded, Arrays.copyOf(pulses, pulseCount), Arrays.copyOf(lines, pulseCount), (float) (frequencyOffsetSum / pulseCount), image, truncated);
+		chunks = new ArrayList<>();
+		executor.execute(job);
+	}
+
+	// the recording stays out of snapshots, a restored image can only be delivered as it was received
+	public void save(DataOutput out) throws IOException {
+		out.writeBoolean(active);
+	}
+
+	public void restore(DataInput in, Mode mode) throws IOException {
+		stop();
+		if (!in.readBoolean())
+			return;
+		this.mode = mode;
+		active = callback != null;
+		truncated = true;
+		recorded = 0;
+		pulseCount = 0;
+		frequencyOffsetSum = 0;
+	}
+
+	public long memoryUsage() {
+		long bytes = 2L * chunkSamples * (chunks.size() + spareChunks.size()) + 4L * (pulses.length + lines.length);
+		PixelBuffer pixelBuffer = this.pixelBuffer;
+		if (pixelBuffer != null)
+			bytes += 4L * (pixelBuffer.pixels.length + scratchBufferSamples);
+		float[] window = this.window;
+		if (window != null)
+			bytes += 4L * window.length;
+		return bytes;
+	}
+
+	private class Job implements Runnable {
+		private final Callback callback;
+		private final Mode mode;
+		private final ArrayList<short[]> chunks;
+		private final int recorded;
+		private final int[] pulses;
+		private final int[] lines;
+		private final float frequencyOffset;
+		private final PixelBuffer image;
+		private final boolean truncated;
+		private double period;
+		private double offset;
+
+		Job(Callback callback, Mode mode, ArrayList<short[]> chunks, int recorded, int[] pulses, int[] lines, float frequencyOffset, PixelBuffer image, boolean truncated) {
+			this.callback = callback;
+			this.mode = mode;
+			this.chunks = chunks;
+			this.recorded = recorded;
+			this.pulses = pulses;
+			this.lines = lines;
+			this.frequencyOffset = frequencyOffset;
+			this.image = image;
+			this.truncated = truncated;
+		}
+
+		private boolean fit(double tolerance) {
+			double sumLine = 0, sumPulse = 0, sumLineLine = 0, sumLinePulse = 0;
+			int count = 0;
+			for (int i = 0; i < pulses.length; ++i) {
+				if (Math.abs(pulses[i] - (offset + period * lines[i])) > tolerance)
+					continue;
+				double line = lines[i];
+				// relative to the first pulse to keep the sums well conditioned
+				double pulse = pulses[i] - pulses[0];
+				sumLine += line;
+				sumPulse += pulse;
+				sumLineLine += line * line;
+				sumLinePulse += line * pulse;
+				++count;
+			}
+			double denominator = count * sumLineLine - sumLine * sumLine;
+			if (count < 3 || denominator <= 0)
+				return false;
+			period = (count * sumLinePulse - sumLine * sumPulse) / denominator;
+			offset = pulses[0] + (sumPulse - period * sumLine) / count;
+			return true;
+		}
+
+		private void read(float[] window, int begin) {
+			for (int i = 0; i < window.length; ++i) {
+				int pos = begin + i;
+				if (pos < 0 || pos >= recorded)
+					window[i] = 0;
+				else
+					window[i] = chunks.get(pos / chunkSamples)[pos % chunkSamples] / quantizeScale;
+			}
+		}
+
+		private void decode() {
+			// a cut off recording is no better than the live image
+			if (truncated)
+				return;
+			int nominal = mode.getScanLineSamples();
+			period = nominal;
+			offset = pulses[0];
+			if (!fit(Double.MAX_VALUE) || !fit(toleranceSamples))
+				return;
+			if (Math.abs(period - nominal) > 0.01 * nominal)
+				return;
+			if (pixelBuffer == null) {
+				pixelBuffer = new PixelBuffer(800, 2);
+				scratchBuffer = new float[scratchBufferSamples];
+			}
+			pixelBuffer.line = -1;
+			int margin = (int) Math.ceil(period) + 16;
+			if (window == null || window.length != 2 * margin)
+				window = new float[2 * margin];
+			for (int line = 0, row = 0; row < image.height; ++line) {
+				double pulse = offset + period * line;
+				if (pulse + period > recorded)
+					break;
+				int begin = (int) Math.floor(pulse) - margin;
+				read(window, begin);
+				if (!mode.decodeScanLine(pixelBuffer, scratchBuffer, window, pixelBuffer.width, 0, false, pulse - begin, period, frequencyOffset))
+					continue;
+				if (pixelBuffer.width != image.width)
+					return;
+				for (int i = 0; i < pixelBuffer.height && row < image.height; ++i, ++row)
+					System.arraycopy(pixelBuffer.pixels, i * pixelBuffer.width, image.pixels, row * image.width, image.width);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				decode();
+			} finally {
+				spareChunks.addAll(chunks);
+				chunks.clear();
+				image.line = image.height;
+				callback.corrected(image);
+				imagePool.release(image);
+			}
+		}
+	}
+}
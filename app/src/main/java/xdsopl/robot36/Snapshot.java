@@ -0,0 +1,126 @@
+/*
+Snapshot helpers
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public final class Snapshot {
+	static final int MAGIC = 0x52333653; // "R36S"
+	static final int VERSION = 2;
+	private static final int blockSamples = 4096;
+
+	public interface Writer {
+		void write(float[] buffer, int offset, int length);
+	}
+
+	// for handing a snapshot over in memory without copying it again
+	public static class Buffer extends ByteArrayOutputStream {
+		public ByteArrayInputStream input() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
+	// sample positions and lengths saved at one rate, as seen at another
+	public static int scale(int samples, double scale) {
+		return (int) Math.round(samples * scale);
+	}
+
+	// writes count samples out in blocks, linearly interpolated to the new rate
+	public static void resample(float[] input, int count, double scale, Writer writer) {
+		if (count <= 0)
+			return;
+		int outputs = scale(count, scale);
+		float[] block = new float[Math.max(Math.min(blockSamples, outputs), 1)];
+		int filled = 0;
+		for (int k = 0; k < outputs; ++k) {
+			double position = k / scale;
+			int index = Math.min((int) position, count - 1);
+			float value = input[index];
+			if (index < count - 1)
+				value += (float) (position - index) * (input[index + 1] - value);
+			block[filled++] = value;
+			if (filled == block.length) {
+				writer.write(block, 0, filled);
+				filled = 0;
+			}
+		}
+		if (filled > 0)
+			writer.write(block, 0, filled);
+	}
+
+	public static void writeFloats(DataOutput out, float[] values, int offset, int length) throws IOException {
+		byte[] block = new byte[4 * Math.min(blockSamples, length)];
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		while (length > 0) {
+			int count = Math.min(blockSamples, length);
+			buffer.clear();
+			buffer.asFloatBuffer().put(values, offset, count);
+			out.write(block, 0, 4 * count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public static void readFloats(DataInput in, float[] values, int offset, int length) throws IOException {
+		byte[] block = new byte[4 * Math.min(blockSamples, length)];
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		while (length > 0) {
+			int count = Math.min(blockSamples, length);
+			in.readFully(block, 0, 4 * count);
+			buffer.clear();
+			buffer.asFloatBuffer().get(values, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	// for arrays of a length that does not fit
+	public static void skipFloats(DataInput in, int length) throws IOException {
+		if (length < 0)
+			throw new IOException("negative length");
+		byte[] block = new byte[4 * Math.min(blockSamples, length)];
+		while (length > 0) {
+			int count = Math.min(blockSamples, length);
+			in.readFully(block, 0, 4 * count);
+			length -= count;
+		}
+	}
+
+	// pixels are all opaque, so only red, green and blue go out
+	public static void writePixels(DataOutput out, int[] pixels, int offset, int length) throws IOException {
+		byte[] block = new byte[3 * Math.min(blockSamples, length)];
+		while (length > 0) {
+			int count = Math.min(blockSamples, length);
+			for (int i = 0, j = 0; i < count; ++i) {
+				int pixel = pixels[offset + i];
+				block[j++] = (byte) (pixel >> 16);
+				block[j++] = (byte) (pixel >> 8);
+				block[j++] = (byte) pixel;
+			}
+			out.write(block, 0, 3 * count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public static void readPixels(DataInput in, int[] pixels, int offset, int length) throws IOException {
+		byte[] block = new byte[3 * Math.min(blockSamples, length)];
+		while (length > 0) {
+			int count = Math.min(blockSamples, length);
+			in.readFully(block, 0, 3 * count);
+			for (int i = 0, j = 0; i < count; ++i, j += 3)
+				pixels[offset + i] = 0xff000000 | (block[j] & 255) << 16 | (block[j + 1] & 255) << 8 | block[j + 2] & 255;
+			offset += count;
+			length -= count;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+Blocking stream ingestion
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+public class StreamIngestor {
+	private final ThreadFactory threadFactory;
+	private final CopyOnWriteArrayList<Ingestion> ingestions;
+	private final int blockSize;
+	public final boolean virtual;
+	// totals of ingestions that have ended, guarded by this
+	private long endedWaitNanos;
+	private long endedDecodeNanos;
+	private long endedSamples;
+
+	public interface Source {
+		// called on the ingestion thread, so opening a named pipe may block here
+		InputStream open() throws IOException;
+	}
+
+	public interface Listener {
+		// called on the ingestion thread before the first block is decoded
+		void decoderCreated(Ingestion ingestion, Decoder decoder);
+
+		void ingestionEnded(Ingestion ingestion, IOException error);
+	}
+
+	public class Ingestion implements Runnable {
+		public final String name;
+		public final int sampleRate;
+		private final Source source;
+		private volatile InputStream input;
+		private final int channelSelect;
+		private final int channels;
+		private final Listener listener;
+		private volatile long waitNanos;
+		private volatile long decodeNanos;
+		private volatile long samples;
+		private volatile boolean running;
+
+		Ingestion(String name, Source source, int sampleRate, int channelSelect, Listener listener) {
+			this.name = name;
+			this.source = source;
+			this.sampleRate = sampleRate;
+			this.channelSelect = channelSelect;
+			this.channels = channelSelect > 0 ? 2 : 1;
+			this.listener = listener;
+		}
+
+		private int readFully(byte[] bytes) throws IOException {
+			int length = 0;
+			while (length < bytes.length) {
+				int count = input.read(bytes, length, bytes.length - length);
+				if (count < 0)
+					break;
+				length += count;
+			}
+			return length;
+		}
+
+		@Override
+		public void run() {
+			running = true;
+			IOException error = null;
+			Decoder decoder = null;
+			PixelBuffer imageBuffer = null;
+			byte[] bytes = new byte[2 * channels * blockSize];
+			float[] block = new float[channels * blockSize];
+			try {
+				input = source.open();
+				while (true) {
+					long begin = System.nanoTime();
+					int length = readFully(bytes);
+					long read = System.nanoTime();
+					waitNanos += read - begin;
+					// only full frames, the remainder of a short read at the end is dropped
+					int frames = length / (2 * channels);
+					if (frames == 0)
+						break;
+					// decoders are created on the first data, so idle streams stay cheap
+					if (decoder == null) {
+						imageBuffer = new PixelBuffer(800, 616);
+						decoder = new Decoder(new PixelBuffer(320, 1), imageBuffer, "Raw", sampleRate);
+						if (listener != null)
+							listener.decoderCreated(this, decoder);
+					}
+					if (frames < blockSize)
+						block = new float[channels * frames];
+					for (int i = 0; i < channels * frames; ++i)
+						block[i] = .000030517578125f * (short) ((bytes[2 * i] & 255) | bytes[2 * i + 1] << 8);
+					decoder.process(block, channelSelect);
+					if (imageBuffer.line >= imageBuffer.height)
+						imageBuffer.line = -1;
+					samples += frames;
+					decodeNanos += System.nanoTime() - read;
+					if (frames < blockSize)
+						break;
+				}
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				running = false;
+				try {
+					if (input != null)
+						input.close();
+				} catch (IOException ignore) {
+				}
+				synchronized (StreamIngestor.this) {
+					endedWaitNanos += waitNanos;
+					endedDecodeNanos += decodeNanos;
+					endedSamples += samples;
+					ingestions.remove(this);
+				}
+				if (listener != null)
+					listener.ingestionEnded(this, error);
+			}
+		}
+
+		public double waitSeconds() {
+			return waitNanos / 1e9;
+		}
+
+		public double decodeSeconds() {
+			return decodeNanos / 1e9;
+		}
+
+		public long samples() {
+			return samples;
+		}
+
+		public boolean running() {
+			return running;
+		}
+
+		public void close() throws IOException {
+			InputStream input = this.input;
+			if (input != null)
+				input.close();
+		}
+	}
+
+	StreamIngestor(int blockSize) {
+		this.blockSize = blockSize;
+		ingestions = new CopyOnWriteArrayList<>();
+		ThreadFactory factory = virtualThreadFactory();
+		virtual = factory != null;
+		if (factory == null) {
+			factory = runnable -> {
+				Thread thread = new Thread(runnable, "StreamIngestor");
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+		threadFactory = factory;
+	}
+
+	// virtual threads need Java 21, we still have to build for Java 8 and Android
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	// 16 bit little endian PCM, interleaved when stereo
+	public Ingestion add(String name, Source source, int sampleRate, int channelSelect, Listener listener) {
+		Ingestion ingestion = new Ingestion(name, source, sampleRate, channelSelect, listener);
+		ingestions.add(ingestion);
+		threadFactory.newThread(ingestion).start();
+		return ingestion;
+	}
+
+	// works for regular files as well as named pipes
+	public Ingestion add(File file, int sampleRate, int channelSelect, Listener listener) {
+		return add(file.getPath(), () -> new FileInputStream(file), sampleRate, channelSelect, listener);
+	}
+
+	public Ingestion add(String name, InputStream input, int sampleRate, int channelSelect, Listener listener) {
+		return add(name, () -> input, sampleRate, channelSelect, listener);
+	}
+
+	public Iterable<Ingestion> ingestions() {
+		return ingestions;
+	}
+
+	public int active() {
+		return ingestions.size();
+	}
+
+	// totals over all ingestions so far, ended or not, so they never go down
+	public synchronized double waitSeconds() {
+		long sum = endedWaitNanos;
+		for (Ingestion ingestion : ingestions)
+			sum += ingestion.waitNanos;
+		return sum / 1e9;
+	}
+
+	public synchronized double decodeSeconds() {
+		long sum = endedDecodeNanos;
+		for (Ingestion ingestion : ingestions)
+			sum += ingestion.decodeNanos;
+		return sum / 1e9;
+	}
+
+	public synchronized long samples() {
+		long sum = endedSamples;
+		for (Ingestion ingestion : ingestions)
+			sum += ingestion.samples;
+		return sum;
+	}
+}
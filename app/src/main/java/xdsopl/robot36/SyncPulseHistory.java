@@ -0,0 +1,111 @@
+/*
+Sync pulse history
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class SyncPulseHistory {
+	public final int length;
+	private final int[] pulses;
+	private final int[] lines;
+	private final float[] frequencyOffsets;
+	private int pulsePos;
+	private int linePos;
+	private int pulseShift;
+	private long lineSum;
+	private long lineSquareSum;
+	private double frequencyOffsetSum;
+
+	SyncPulseHistory(int length) {
+		this.length = length;
+		this.pulses = new int[length + 1];
+		this.lines = new int[length];
+		this.frequencyOffsets = new float[length + 1];
+	}
+
+	public void push(int pulse, float frequencyOffset) {
+		int line = pulse - pulse(length);
+		lineSum += line - lines[linePos];
+		lineSquareSum += (long) line * line - (long) lines[linePos] * lines[linePos];
+		lines[linePos] = line;
+		if (++linePos >= length)
+			linePos = 0;
+		frequencyOffsetSum += frequencyOffset - frequencyOffsets[pulsePos];
+		frequencyOffsets[pulsePos] = frequencyOffset;
+		// stored relative to the accumulated shift, so shifting never touches the window
+		pulses[pulsePos] = pulse + pulseShift;
+		if (++pulsePos > length)
+			pulsePos = 0;
+	}
+
+	public void reset(int oldestPulse, int scanLineSamples) {
+		for (int i = 0; i <= length; ++i)
+			pulses[(pulsePos + i) % (length + 1)] = oldestPulse + i * scanLineSamples + pulseShift;
+		for (int i = 0; i < length; ++i)
+			lines[i] = scanLineSamples;
+		lineSum = (long) length * scanLineSamples;
+		lineSquareSum = lineSum * scanLineSamples;
+	}
+
+	public void shift(int shift) {
+		pulseShift += shift;
+	}
+
+	public int pulse(int index) {
+		return pulses[(pulsePos + index) % (length + 1)] - pulseShift;
+	}
+
+	public int line(int index) {
+		return lines[(linePos + index) % length];
+	}
+
+	public double lineMean() {
+		return (double) lineSum / length;
+	}
+
+	public double lineStdDev() {
+		return Math.sqrt(length * lineSquareSum - lineSum * lineSum) / length;
+	}
+
+	public double frequencyOffsetMean() {
+		return frequencyOffsetSum / (length + 1);
+	}
+
+	// oldest first, so the restored window starts at position zero without a shift
+	public void save(DataOutput out) throws IOException {
+		out.writeInt(length);
+		for (int i = 0; i <= length; ++i) {
+			out.writeInt(pulse(i));
+			out.writeFloat(frequencyOffsets[(pulsePos + i) % (length + 1)]);
+		}
+		for (int i = 0; i < length; ++i)
+			out.writeInt(line(i));
+		out.writeDouble(frequencyOffsetSum);
+	}
+
+	public void restore(DataInput in, double scale) throws IOException {
+		if (in.readInt() != length)
+			throw new IOException("history length mismatch");
+		pulsePos = 0;
+		linePos = 0;
+		pulseShift = 0;
+		for (int i = 0; i <= length; ++i) {
+			pulses[i] = Snapshot.scale(in.readInt(), scale);
+			frequencyOffsets[i] = in.readFloat();
+		}
+		lineSum = 0;
+		lineSquareSum = 0;
+		for (int i = 0; i < length; ++i) {
+			lines[i] = Snapshot.scale(in.readInt(), scale);
+			lineSum += lines[i];
+			lineSquareSum += (long) lines[i] * lines[i];
+		}
+		frequencyOffsetSum = in.readDouble();
+	}
+}
@@ -0,0 +1,207 @@
+/*
+Waterfall spectrum
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+public class Waterfall {
+	private final PixelBuffer pixelBuffer;
+	private final float[] history;
+	private final float[] window;
+	private final float[] real;
+	private final float[] imag;
+	private final float[] fftCos;
+	private final float[] fftSin;
+	private final float[] splitCos;
+	private final float[] splitSin;
+	private final float[] power;
+	private final int[] reverse;
+	private final int[] columnBins;
+	private final float[] columnWeights;
+	private final int sampleRate;
+	private final int fftSize;
+	private final int hopSamples;
+	private final int firstBin;
+	private final int lastBin;
+	private final int color;
+	private final double budget;
+	private final float powerScale;
+	private int position;
+	private int pending;
+	private long samples;
+	private long busyNanos;
+	private long rows;
+	private long skipped;
+
+	// columns show the same 900 to 2500 Hz as the frequency plot, rows are capped at maxRowsPerSecond
+	Waterfall(PixelBuffer pixelBuffer, int sampleRate, int color, int maxRowsPerSecond, double budget) {
+		this.pixelBuffer = pixelBuffer;
+		this.sampleRate = sampleRate;
+		this.color = color;
+		this.budget = budget;
+		// about 10 Hz resolution or better
+		int size = 2;
+		while (2 * size <= sampleRate / 10)
+			size *= 2;
+		fftSize = size;
+		int half = fftSize / 2;
+		hopSamples = Math.max(sampleRate / maxRowsPerSecond, 1);
+		history = new float[fftSize];
+		window = new float[fftSize];
+		Kaiser kaiser = new Kaiser();
+		double windowSum = 0;
+		for (int i = 0; i < fftSize; ++i) {
+			window[i] = (float) kaiser.window(2.0, i, fftSize);
+			windowSum += window[i];
+		}
+		// full scale sine at 0 dB
+		powerScale = (float) (4 / (windowSum * windowSum));
+		real = new float[half];
+		imag = new float[half];
+		fftCos = new float[half / 2];
+		fftSin = new float[half / 2];
+		for (int i = 0; i < half / 2; ++i) {
+			fftCos[i] = (float) Math.cos(2 * Math.PI * i / half);
+			fftSin[i] = (float) -Math.sin(2 * Math.PI * i / half);
+		}
+		reverse = new int[half];
+		int bits = Integer.numberOfTrailingZeros(half);
+		for (int i = 0; i < half; ++i)
+			reverse[i] = bits > 0 ? Integer.reverse(i) >>> (32 - bits) : 0;
+		double lowestFrequency = 900;
+		double highestFrequency = 2500;
+		double binWidth = sampleRate / (double) fftSize;
+		int width = pixelBuffer.width;
+		columnBins = new int[width];
+		columnWeights = new float[width];
+		for (int x = 0; x < width; ++x) {
+			double bin = (lowestFrequency + (x + 0.5) * (highestFrequency - lowestFrequency) / width) / binWidth;
+			columnBins[x] = (int) Math.floor(bin);
+			columnWeights[x] = (float) (bin - columnBins[x]);
+		}
+		firstBin = columnBins[0];
+		lastBin = Math.min(columnBins[width - 1] + 1, half);
+		power = new float[lastBin - firstBin + 1];
+		splitCos = new float[power.length];
+		splitSin = new float[power.length];
+		for (int k = firstBin; k <= lastBin; ++k) {
+			splitCos[k - firstBin] = (float) Math.cos(2 * Math.PI * k / fftSize);
+			splitSin[k - firstBin] = (float) -Math.sin(2 * Math.PI * k / fftSize);
+		}
+	}
+
+	// takes the raw audio, so this has to be called before the demodulator overwrites it
+	public void process(float[] buffer, int channelSelect) {
+		int channels = channelSelect > 0 ? 2 : 1;
+		for (int i = 0; i < buffer.length / channels; ++i) {
+			float value;
+			switch (channelSelect) {
+				case 2:
+					value = buffer[2 * i + 1];
+					break;
+				case 3:
+					value = buffer[2 * i] + buffer[2 * i + 1];
+					break;
+				case 1:
+				case 4:
+					value = buffer[2 * i];
+					break;
+				default:
+					value = buffer[i];
+			}
+			history[position] = value;
+			position = (position + 1) % fftSize;
+			++samples;
+			if (++pending >= hopSamples) {
+				pending = 0;
+				frame();
+			}
+		}
+	}
+
+	private void frame() {
+		int width = pixelBuffer.width;
+		int line = width * pixelBuffer.line;
+		// keep the time axis steady by repeating the last row when we are over budget
+		if (busyNanos > budget * 1e9 * samples / sampleRate) {
+			int previous = width * ((pixelBuffer.line + pixelBuffer.height - 1) % pixelBuffer.height);
+			System.arraycopy(pixelBuffer.pixels, previous, pixelBuffer.pixels, line, width);
+			++skipped;
+		} else {
+			long begin = System.nanoTime();
+			transform();
+			for (int x = 0; x < width; ++x) {
+				int bin = columnBins[x] - firstBin;
+				float weight = columnWeights[x];
+				float value = (1 - weight) * power[bin] + weight * power[bin + 1];
+				float decibel = 10 * (float) Math.log10(value * powerScale + 1e-12f);
+				// from -80 to 0 dB
+				int alpha = Math.min(Math.max(Math.round((decibel + 80) * (255 / 80.f)), 0), 255);
+				pixelBuffer.pixels[line + x] = 0x00FFFFFF & color | alpha << 24;
+			}
+			busyNanos += System.nanoTime() - begin;
+		}
+		pixelBuffer.advance();
+		++rows;
+	}
+
+	// real input of size N packed into a complex FFT of size N/2, then split into the bins we show
+	private void transform() {
+		int half = fftSize / 2;
+		for (int k = 0; k < half; ++k) {
+			int even = (position + 2 * k) % fftSize;
+			int odd = (even + 1) % fftSize;
+			real[reverse[k]] = window[2 * k] * history[even];
+			imag[reverse[k]] = window[2 * k + 1] * history[odd];
+		}
+		for (int size = 2; size <= half; size *= 2) {
+			int step = half / size;
+			for (int begin = 0; begin < half; begin += size) {
+				for (int k = 0; k < size / 2; ++k) {
+					int a = begin + k;
+					int b = a + size / 2;
+					float c = fftCos[k * step];
+					float s = fftSin[k * step];
+					float re = c * real[b] - s * imag[b];
+					float im = c * imag[b] + s * real[b];
+					real[b] = real[a] - re;
+					imag[b] = imag[a] - im;
+					real[a] += re;
+					imag[a] += im;
+				}
+			}
+		}
+		for (int k = firstBin; k <= lastBin; ++k) {
+			int j = (half - k) % half;
+			int i = k % half;
+			float evenRe = (real[i] + real[j]) / 2;
+			float evenIm = (imag[i] - imag[j]) / 2;
+			float oddRe = (imag[i] + imag[j]) / 2;
+			float oddIm = (real[j] - real[i]) / 2;
+			float c = splitCos[k - firstBin];
+			float s = splitSin[k - firstBin];
+			float re = evenRe + c * oddRe - s * oddIm;
+			float im = evenIm + c * oddIm + s * oddRe;
+			power[k - firstBin] = re * re + im * im;
+		}
+	}
+
+	public int fftSize() {
+		return fftSize;
+	}
+
+	public long rows() {
+		return rows;
+	}
+
+	public long skipped() {
+		return skipped;
+	}
+
+	// fraction of real time spent on transforms
+	public double load() {
+		return samples > 0 ? busyNanos / 1e9 / (samples / (double) sampleRate) : 0;
+	}
+}
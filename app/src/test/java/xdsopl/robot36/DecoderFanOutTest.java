@@ -0,0 +1,72 @@
+/*
+Shared demodulator fan-out tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class DecoderFanOutTest {
+	@Test
+	public void acceptsAsManyBackEndsAsTheMaskHasBits() {
+		DecoderFanOut fanOut = new DecoderFanOut(8000, null);
+		PixelBuffer scopeBuffer = new PixelBuffer(320, 1);
+		PixelBuffer imageBuffer = new PixelBuffer(800, 616);
+		for (int i = 0; i < Long.SIZE; ++i)
+			fanOut.addDecoder(scopeBuffer, imageBuffer, "Robot 36 Color");
+		assertEquals(Long.SIZE, fanOut.decoders().size());
+		try {
+			fanOut.addDecoder(scopeBuffer, imageBuffer, "Robot 36 Color");
+			fail("expected the back end to be rejected");
+		} catch (IllegalStateException ignore) {
+		}
+		assertEquals(Long.SIZE, fanOut.decoders().size());
+	}
+
+	@Test
+	public void rejectsUnknownModes() {
+		DecoderFanOut fanOut = new DecoderFanOut(8000, null);
+		PixelBuffer scopeBuffer = new PixelBuffer(320, 1);
+		PixelBuffer imageBuffer = new PixelBuffer(800, 616);
+		fanOut.addDecoder(scopeBuffer, imageBuffer, "PD 290");
+		fanOut.addDecoder(scopeBuffer, imageBuffer, "Raw");
+		for (String name : new String[]{"Robot 37 Color", "Auto", "", null}) {
+			try {
+				fanOut.addDecoder(scopeBuffer, imageBuffer, name);
+				fail("expected " + name + " to be rejected");
+			} catch (IllegalArgumentException ignore) {
+			}
+		}
+		assertEquals(2, fanOut.decoders().size());
+	}
+
+	@Test
+	public void executorMatchesCallingThread() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		DecoderFanOut serial = new DecoderFanOut(8000, null);
+		DecoderFanOut parallel = new DecoderFanOut(8000, executor);
+		String[] modes = {"Robot 36 Color", "PD 120", "Scottie 1"};
+		for (String mode : modes) {
+			serial.addDecoder(new PixelBuffer(320, 1), new PixelBuffer(800, 616), mode);
+			parallel.addDecoder(new PixelBuffer(320, 1), new PixelBuffer(800, 616), mode);
+		}
+		float[] first = new float[160];
+		float[] second = new float[160];
+		for (int block = 0; block < 100; ++block) {
+			for (int i = 0; i < first.length; ++i)
+				first[i] = second[i] = (float) Math.sin(2 * Math.PI * 1900 * (block * first.length + i) / 8000);
+			assertEquals(serial.process(first, 0), parallel.process(second, 0));
+		}
+		assertArrayEquals(first, second, 0);
+		assertTrue(serial.demodulateSeconds() > 0);
+		assertTrue(parallel.decodeSeconds() > 0);
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+Decoder tests on synthetic signals
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DecoderTest {
+	private static final int[][] image = SignalGenerator.testImage(320, 240);
+
+	private static float[] robot36(int sampleRate, double skew) {
+		SignalGenerator generator = new SignalGenerator(sampleRate, skew);
+		generator.silence(0.5);
+		generator.header(8);
+		generator.robot36(image);
+		generator.silence(1);
+		return generator.samples();
+	}
+
+	// feeds blocks of 20 ms from first up to last and returns true once the image is complete
+	private static boolean feed(Decoder decoder, PixelBuffer imageBuffer, float[] signal, int sampleRate, int first, int last) {
+		int block = sampleRate / 50;
+		float[] buffer = new float[block];
+		for (int offset = first; offset + block <= last; offset += block) {
+			System.arraycopy(signal, offset, buffer, 0, block);
+			if (decoder.process(buffer, 0) && imageBuffer.line >= imageBuffer.height)
+				return true;
+		}
+		return false;
+	}
+
+	@Test
+	public void decodesRobot36() {
+		int sampleRate = 8000;
+		float[] signal = robot36(sampleRate, 1);
+		PixelBuffer imageBuffer = new PixelBuffer(800, 616);
+		Decoder decoder = new Decoder(new PixelBuffer(640, 1280), imageBuffer, "Raw", sampleRate);
+		assertTrue(feed(decoder, imageBuffer, signal, sampleRate, 0, signal.length));
+		assertEquals("Robot 36 Color", decoder.currentMode.getName());
+		assertEquals(320, imageBuffer.width);
+		assertEquals(240, imageBuffer.height);
+		assertTrue(SignalGenerator.psnr(imageBuffer, image) > 20);
+	}
+
+	@Test
+	public void correctsSlant() throws InterruptedException {
+		int sampleRate = 8000;
+		// the clock of this sender is far enough off for the live image to lose track
+		float[] signal = robot36(sampleRate, 1.008);
+		PixelBuffer imageBuffer = new PixelBuffer(800, 616);
+		Decoder decoder = new Decoder(new PixelBuffer(640, 1280), imageBuffer, "Raw", sampleRate);
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicReference<Double> psnr = new AtomicReference<>();
+		decoder.setSlantCorrection(corrected -> {
+			psnr.set(SignalGenerator.psnr(corrected, image));
+			latch.countDown();
+		});
+		assertTrue(feed(decoder, imageBuffer, signal, sampleRate, 0, signal.length));
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertTrue(psnr.get() > SignalGenerator.psnr(imageBuffer, image) + 3);
+	}
+
+	@Test
+	public void carriesOnAfterRestoreAtAnotherRate() throws IOException {
+		int savedRate = 8000, restoredRate = 16000;
+		float[] saved = robot36(savedRate, 1);
+		float[] restored = robot36(restoredRate, 1);
+		PixelBuffer imageBuffer = new PixelBuffer(800, 616);
+		Decoder decoder = new Decoder(new PixelBuffer(640, 1280), imageBuffer, "Raw", savedRate);
+		int half = saved.length / 2 / (savedRate / 50) * (savedRate / 50);
+		assertFalse(feed(decoder, imageBuffer, saved, savedRate, 0, half));
+		int line = imageBuffer.line;
+		assertTrue(line > 0 && line < imageBuffer.height);
+		Snapshot.Buffer snapshot = new Snapshot.Buffer();
+		decoder.save(new DataOutputStream(snapshot));
+
+		PixelBuffer restoredImage = new PixelBuffer(800, 616);
+		Decoder restoredDecoder = new Decoder(new PixelBuffer(640, 1280), restoredImage, "Raw", restoredRate);
+		restoredDecoder.restore(new DataInputStream(snapshot.input()));
+		assertEquals("Robot 36 Color", restoredDecoder.currentMode.getName());
+		assertEquals(line, restoredImage.line);
+		int resume = (int) ((long) half * restoredRate / savedRate);
+		assertTrue(feed(restoredDecoder, restoredImage, restored, restoredRate, resume, restored.length));
+		assertTrue(SignalGenerator.psnr(restoredImage, image) > 20);
+	}
+
+	// damaged snapshots either restore into something that decodes on, or get rejected, they never fail later
+	@Test
+	public void rejectsDamagedSnapshots() throws IOException {
+		int sampleRate = 8000;
+		float[] signal = robot36(sampleRate, 1);
+		Decoder decoder = new Decoder(new PixelBuffer(640, 1280), new PixelBuffer(800, 616), "Raw", sampleRate);
+		// in the middle of the code of the header
+		int saved = (int) (1.2 * sampleRate) / (sampleRate / 50) * (sampleRate / 50);
+		feed(decoder, new PixelBuffer(800, 616), signal, sampleRate, 0, saved);
+		Snapshot.Buffer snapshot = new Snapshot.Buffer();
+		decoder.save(new DataOutputStream(snapshot));
+		byte[] bytes = snapshot.toByteArray();
+		PixelBuffer imageBuffer = new PixelBuffer(800, 616);
+		Decoder restored = new Decoder(new PixelBuffer(640, 1280), imageBuffer, "Raw", sampleRate);
+		int rejected = 0;
+		for (int offset = 0; offset + 4 <= bytes.length; ++offset) {
+			// past the filters and up to the header state there are only the buffered samples
+			if (offset == 1024)
+				offset = Math.max(offset, bytes.length - 4096);
+			byte[] damaged = bytes.clone();
+			int value = (offset & 1) == 0 ? Integer.MAX_VALUE : -2;
+			for (int k = 0; k < 4; ++k)
+				damaged[offset + k] = (byte) (value >> 24 - 8 * k);
+			try {
+				restored.restore(new DataInputStream(new ByteArrayInputStream(damaged)));
+			} catch (IOException e) {
+				++rejected;
+				continue;
+			}
+			// anything out of range shows up in the first block
+			feed(restored, imageBuffer, signal, sampleRate, saved, saved + sampleRate / 50);
+		}
+		assertTrue(rejected > 0);
+		for (int length = 0; length < bytes.length; length += 97) {
+			try {
+				decoder.restore(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)));
+				fail();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsForeignData() throws IOException {
+		Decoder decoder = new Decoder(new PixelBuffer(640, 1280), new PixelBuffer(800, 616), "Raw", 8000);
+		decoder.restore(new DataInputStream(new ByteArrayInputStream(new byte[16])));
+	}
+}
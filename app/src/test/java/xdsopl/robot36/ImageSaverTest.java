@@ -0,0 +1,101 @@
+/*
+Background image saver tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ImageSaverTest {
+	private static void waitFor(ImageSaver saver, int saved) throws InterruptedException {
+		for (int i = 0; i < 1000 && saver.saved() < saved; ++i)
+			Thread.sleep(5);
+		assertEquals(saved, saver.saved());
+	}
+
+	@Test
+	public void savesCopiesAndReusesBuffers() throws InterruptedException {
+		List<Integer> firstPixels = Collections.synchronizedList(new ArrayList<>());
+		ImageSaver saver = new ImageSaver(4, image -> {
+			assertEquals(image.height, image.line);
+			firstPixels.add(image.pixels[0]);
+		});
+		PixelBuffer image = new PixelBuffer(8, 4);
+		for (int i = 0; i < 10; ++i) {
+			image.pixels[0] = i;
+			saver.save(image);
+			waitFor(saver, i + 1);
+		}
+		assertEquals(1, saver.allocations());
+		assertEquals(0, saver.dropped());
+		for (int i = 0; i < 10; ++i)
+			assertEquals(i, (int) firstPixels.get(i));
+	}
+
+	@Test
+	public void dropsWhenTheQueueIsFull() throws InterruptedException {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ImageSaver saver = new ImageSaver(2, image -> {
+			blocked.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ignore) {
+			}
+		});
+		PixelBuffer image = new PixelBuffer(2, 2);
+		saver.save(image);
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		saver.save(image);
+		saver.save(image);
+		assertEquals(2, saver.pending());
+		saver.save(image);
+		saver.save(image);
+		assertEquals(2, saver.dropped());
+		release.countDown();
+		waitFor(saver, 3);
+		assertEquals(0, saver.pending());
+		assertTrue(saver.allocations() <= 4);
+	}
+
+	@Test
+	public void savesRingsFromTheGivenRow() throws InterruptedException {
+		int[][] saved = new int[1][];
+		ImageSaver saver = new ImageSaver(1, image -> saved[0] = image.pixels.clone());
+		PixelBuffer ring = new PixelBuffer(1, 5);
+		for (int i = 0; i < 5; ++i)
+			ring.pixels[i] = i;
+		saver.save(ring, 2);
+		waitFor(saver, 1);
+		assertArrayEquals(new int[]{2, 3, 4, 0, 1}, saved[0]);
+	}
+
+	@Test
+	public void finishesQueuedImagesOnShutdown() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		ImageSaver saver = new ImageSaver(2, image -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ignore) {
+			}
+		});
+		PixelBuffer image = new PixelBuffer(2, 2);
+		saver.save(image);
+		saver.save(image);
+		saver.shutdown();
+		saver.save(image);
+		assertEquals(1, saver.dropped());
+		release.countDown();
+		waitFor(saver, 2);
+	}
+}
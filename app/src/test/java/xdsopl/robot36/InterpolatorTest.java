@@ -0,0 +1,60 @@
+/*
+Interpolator tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InterpolatorTest {
+	private static float[] samples() {
+		float[] buffer = new float[32];
+		for (int i = 0; i < buffer.length; ++i)
+			buffer[i] = (float) Math.sin(0.3 * i);
+		return buffer;
+	}
+
+	@Test
+	public void hitsTheSamples() {
+		float[] buffer = samples();
+		for (Interpolator interpolator : new Interpolator[]{Interpolator.LINEAR, Interpolator.CUBIC})
+			for (int i = interpolator.before(); i < buffer.length - interpolator.after(); ++i)
+				assertEquals(buffer[i], interpolator.sample(buffer, i), 1e-6);
+	}
+
+	@Test
+	public void followsStraightLines() {
+		float[] buffer = new float[16];
+		for (int i = 0; i < buffer.length; ++i)
+			buffer[i] = 3 * i - 7;
+		for (Interpolator interpolator : new Interpolator[]{Interpolator.LINEAR, Interpolator.CUBIC})
+			for (float position = 2; position < 12; position += 0.125f)
+				assertEquals(3 * position - 7, interpolator.sample(buffer, position), 1e-4);
+	}
+
+	@Test
+	public void cubicIsCloserToSmoothSignals() {
+		float[] buffer = samples();
+		double linear = 0, cubic = 0;
+		for (float position = 4; position < 24; position += 0.1f) {
+			double expected = Math.sin(0.3 * position);
+			linear += Math.abs(Interpolator.LINEAR.sample(buffer, position) - expected);
+			cubic += Math.abs(Interpolator.CUBIC.sample(buffer, position) - expected);
+		}
+		assertTrue(cubic < linear / 2);
+	}
+
+	@Test
+	public void knowsItsNeighbors() {
+		assertEquals(2, Interpolator.LINEAR.taps);
+		assertEquals(0, Interpolator.LINEAR.before());
+		assertEquals(1, Interpolator.LINEAR.after());
+		assertEquals(4, Interpolator.CUBIC.taps);
+		assertEquals(1, Interpolator.CUBIC.before());
+		assertEquals(2, Interpolator.CUBIC.after());
+	}
+}
@@ -0,0 +1,91 @@
+/*
+Memory mapped image journal tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MappedImageTest {
+	private final File directory;
+
+	public MappedImageTest() throws IOException {
+		directory = Files.createTempDirectory("journal").toFile();
+		directory.deleteOnExit();
+	}
+
+	private static int[] row(int width, int line) {
+		int[] pixels = new int[width];
+		for (int x = 0; x < width; ++x)
+			pixels[x] = 0xff000000 | line << 8 | x;
+		return pixels;
+	}
+
+	// leaves the journal behind as if the process died after the given number of rows
+	private File interrupt(int width, int height, int rows) {
+		MappedImage journal = new MappedImage(directory);
+		journal.imageStarted(null, width, height, 0);
+		for (int line = 0; line < rows; ++line)
+			journal.rowDecoded(IntBuffer.wrap(row(width, line)), line, 1);
+		File[] files = MappedImage.pending(directory);
+		assertEquals(1, files.length);
+		files[0].deleteOnExit();
+		return files[0];
+	}
+
+	@Test
+	public void recoversThePartOfTheImageReceived() throws IOException {
+		File file = interrupt(320, 256, 100);
+		PixelBuffer image = MappedImage.recover(file);
+		assertNotNull(image);
+		assertEquals(320, image.width);
+		assertEquals(100, image.height);
+		assertEquals(100, image.line);
+		for (int line = 0; line < 100; ++line)
+			for (int x = 0; x < 320; ++x)
+				assertEquals(row(320, line)[x], image.pixels[line * 320 + x]);
+		assertTrue(file.delete());
+	}
+
+	@Test
+	public void recoversNothingWithoutRows() throws IOException {
+		File file = interrupt(320, 256, 0);
+		assertNull(MappedImage.recover(file));
+		assertTrue(file.delete());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsCutOffJournals() throws IOException {
+		File file = interrupt(320, 256, 10);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(RawImage.HEADER_BYTES + 4 * 320 * 5);
+		}
+		try {
+			MappedImage.recover(file);
+		} finally {
+			assertTrue(file.delete());
+		}
+	}
+
+	@Test
+	public void removesTheJournalWhenTheImageEnds() {
+		MappedImage journal = new MappedImage(directory);
+		for (boolean complete : new boolean[]{true, false}) {
+			journal.imageStarted(null, 8, 8, 0);
+			journal.rowDecoded(IntBuffer.wrap(row(8, 0)), 0, 1);
+			assertEquals(1, MappedImage.pending(directory).length);
+			journal.imageEnded(complete);
+			assertEquals(0, MappedImage.pending(directory).length);
+		}
+	}
+}
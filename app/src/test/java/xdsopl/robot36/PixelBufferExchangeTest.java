@@ -0,0 +1,77 @@
+/*
+Triple buffered pixel buffer exchange tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PixelBufferExchangeTest {
+	private static void addRows(PixelBuffer ring, int count, int color) {
+		for (int i = 0; i < count; ++i) {
+			Arrays.fill(ring.pixels, ring.line * ring.width, (ring.line + 1) * ring.width, color);
+			ring.advance();
+		}
+	}
+
+	@Test
+	public void copiesOnlyMarkedRows() {
+		PixelBuffer ring = new PixelBuffer(4, 8);
+		PixelBufferExchange exchange = new PixelBufferExchange(ring);
+		addRows(ring, 3, 0xff112233);
+		exchange.markRing();
+		exchange.publish();
+		PixelBuffer front = exchange.acquire();
+		assertEquals(3, front.line);
+		assertEquals(3, front.rows);
+		assertEquals(0xff112233, front.pixels[2 * ring.width]);
+		assertEquals(0, front.pixels[3 * ring.width]);
+		assertEquals(1, exchange.swaps());
+		assertEquals(3, exchange.copiedRows());
+		assertEquals(3, exchange.copiedRowsPerSwap(), 0);
+	}
+
+	@Test
+	public void fullTurnOfTheRingCopiesEverything() {
+		PixelBuffer ring = new PixelBuffer(4, 8);
+		PixelBufferExchange exchange = new PixelBufferExchange(ring);
+		addRows(ring, ring.height, 0xff445566);
+		assertEquals(0, ring.line);
+		exchange.markRing();
+		exchange.publish();
+		PixelBuffer front = exchange.acquire();
+		assertEquals(ring.height, exchange.copiedRows());
+		assertArrayEquals(ring.pixels, front.pixels);
+		addRows(ring, 3 * ring.height + 1, 0xff778899);
+		exchange.markRing();
+		exchange.publish();
+		front = exchange.acquire();
+		assertEquals(2 * ring.height, exchange.copiedRows());
+		assertArrayEquals(ring.pixels, front.pixels);
+		assertEquals(ring.rows, front.rows);
+	}
+
+	@Test
+	public void acquireKeepsFrameUntilNextPublish() {
+		PixelBuffer ring = new PixelBuffer(2, 4);
+		PixelBufferExchange exchange = new PixelBufferExchange(ring);
+		addRows(ring, 1, 0xff000001);
+		exchange.markRing();
+		exchange.publish();
+		PixelBuffer first = exchange.acquire();
+		assertSame(first, exchange.acquire());
+		addRows(ring, 1, 0xff000002);
+		exchange.markRing();
+		exchange.publish();
+		PixelBuffer second = exchange.acquire();
+		assertNotSame(first, second);
+		assertEquals(0xff000002, second.pixels[ring.width]);
+		assertEquals(0xff000001, second.pixels[0]);
+	}
+}
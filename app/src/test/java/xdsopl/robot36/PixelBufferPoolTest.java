@@ -0,0 +1,72 @@
+/*
+Pixel buffer pool tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PixelBufferPoolTest {
+	@Test
+	public void reusesBuffersOfTheSameSize() {
+		PixelBufferPool pool = new PixelBufferPool(2);
+		PixelBuffer buffer = pool.obtain(4, 3);
+		buffer.line = 3;
+		pool.release(buffer);
+		assertSame(buffer, pool.obtain(4, 3));
+		assertEquals(0, buffer.line);
+		assertNotSame(buffer, pool.obtain(3, 4));
+		assertEquals(2, pool.allocations());
+	}
+
+	@Test
+	public void keepsNoMoreThanTheLimit() {
+		PixelBufferPool pool = new PixelBufferPool(1);
+		PixelBuffer first = pool.obtain(2, 2);
+		PixelBuffer second = pool.obtain(2, 2);
+		pool.release(first);
+		pool.release(second);
+		assertSame(first, pool.obtain(2, 2));
+		assertNotSame(second, pool.obtain(2, 2));
+		assertEquals(3, pool.allocations());
+	}
+
+	@Test
+	public void ignoresResizedBuffers() {
+		PixelBufferPool pool = new PixelBufferPool(4);
+		PixelBuffer buffer = pool.obtain(4, 4);
+		buffer.height = 2;
+		pool.release(buffer);
+		assertNotSame(buffer, pool.obtain(4, 2));
+	}
+
+	@Test
+	public void sharesAcrossThreads() throws Exception {
+		PixelBufferPool pool = new PixelBufferPool(8);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int task = 0; task < 4; ++task) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 10000; ++i)
+						pool.release(pool.obtain(16, 16));
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(pool.allocations() <= 8);
+	}
+}
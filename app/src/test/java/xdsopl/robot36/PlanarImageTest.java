@@ -0,0 +1,61 @@
+/*
+Planar YUV image tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlanarImageTest {
+	private static int[] row(int width, int line) {
+		int[] pixels = new int[width];
+		for (int x = 0; x < width; ++x)
+			pixels[x] = 0xff000000 | (x + line & 255) << 16 | (3 * x & 255) << 8 | (line * 5 & 255);
+		return pixels;
+	}
+
+	private static void check(PlanarImage planar, int width, int height, int firstRow, int lastRow) {
+		PixelBuffer image = new PixelBuffer(width, height);
+		planar.begin(width, height);
+		for (int line = 0; line < height; ++line)
+			planar.putRow(line, row(width, line), 0);
+		planar.convert(image, firstRow, lastRow);
+		for (int line = 0; line < height; ++line) {
+			int[] yuv = row(width, line);
+			for (int x = 0; x < width; ++x) {
+				int expected = line >= firstRow && line < lastRow ? ColorConverter.YUV2RGB(yuv[x]) : 0;
+				assertEquals(expected, image.pixels[line * width + x]);
+			}
+		}
+	}
+
+	@Test
+	public void convertsOnTheCallingThread() {
+		check(new PlanarImage(320 * 240, null), 320, 240, 0, 240);
+		check(new PlanarImage(320 * 240, null), 320, 240, 17, 99);
+	}
+
+	@Test
+	public void convertsInBands() {
+		// more rows than fit in a band, with the last band cut short
+		check(new PlanarImage(800 * 616), 800, 616, 0, 616);
+		check(new PlanarImage(800 * 616), 800, 616, 3, 601);
+	}
+
+	@Test
+	public void takesRowsAtAnOffset() {
+		PlanarImage planar = new PlanarImage(16, null);
+		planar.begin(4, 1);
+		int[] pixels = new int[8];
+		pixels[5] = 0xff806040;
+		planar.putRow(0, pixels, 4);
+		PixelBuffer image = new PixelBuffer(4, 1);
+		planar.convert(image, 0, 1);
+		assertEquals(ColorConverter.YUV2RGB(0x80, 0x60, 0x40), image.pixels[1]);
+		assertEquals(3L * 16, planar.memoryUsage());
+	}
+}
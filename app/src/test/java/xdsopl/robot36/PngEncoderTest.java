@@ -0,0 +1,155 @@
+/*
+Parallel PNG encoder tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class PngEncoderTest {
+	private static PixelBuffer image(int width, int height, boolean opaque) {
+		PixelBuffer image = new PixelBuffer(width, height);
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				image.pixels[y * width + x] = (opaque ? 255 : x + y & 255) << 24 | (x * 7 & 255) << 16 | (y * 3 & 255) << 8 | (x ^ y) & 255;
+		image.line = height;
+		return image;
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc)
+			return a;
+		return pb <= pc ? b : c;
+	}
+
+	// checks the chunks and the zlib stream on the way and gives back the pixels
+	private static PixelBuffer decode(byte[] png) throws DataFormatException {
+		ByteBuffer buffer = ByteBuffer.wrap(png);
+		byte[] signature = new byte[8];
+		buffer.get(signature);
+		assertArrayEquals(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}, signature);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		int width = 0, height = 0, channels = 0;
+		while (true) {
+			int length = buffer.getInt();
+			byte[] chunk = new byte[4 + length];
+			buffer.get(chunk);
+			CRC32 crc = new CRC32();
+			crc.update(chunk);
+			assertEquals((int) crc.getValue(), buffer.getInt());
+			String type = new String(chunk, 0, 4);
+			ByteBuffer body = ByteBuffer.wrap(chunk, 4, length);
+			if (type.equals("IHDR")) {
+				width = body.getInt();
+				height = body.getInt();
+				assertEquals(8, body.get());
+				byte color = body.get();
+				assertTrue(color == 2 || color == 6);
+				channels = color == 6 ? 4 : 3;
+			} else if (type.equals("IDAT")) {
+				data.write(chunk, 4, length);
+			} else if (type.equals("IEND")) {
+				break;
+			}
+		}
+		assertFalse(buffer.hasRemaining());
+		int rowBytes = width * channels;
+		byte[] raw = new byte[height * (rowBytes + 1)];
+		Inflater inflater = new Inflater();
+		inflater.setInput(data.toByteArray());
+		assertEquals(raw.length, inflater.inflate(raw));
+		assertTrue(inflater.finished());
+		inflater.end();
+		PixelBuffer image = new PixelBuffer(width, height);
+		int[] prev = new int[rowBytes], cur = new int[rowBytes];
+		for (int y = 0; y < height; ++y) {
+			int begin = y * (rowBytes + 1);
+			int filter = raw[begin];
+			for (int i = 0; i < rowBytes; ++i) {
+				int x = raw[begin + 1 + i] & 255;
+				int a = i >= channels ? cur[i - channels] : 0;
+				int b = prev[i];
+				int c = i >= channels ? prev[i - channels] : 0;
+				switch (filter) {
+					case 0:
+						break;
+					case 1:
+						x += a;
+						break;
+					case 2:
+						x += b;
+						break;
+					case 3:
+						x += (a + b) >> 1;
+						break;
+					case 4:
+						x += paeth(a, b, c);
+						break;
+					default:
+						fail("unknown filter " + filter);
+				}
+				cur[i] = x & 255;
+			}
+			for (int x = 0, i = 0; x < width; ++x, i += channels)
+				image.pixels[y * width + x] = (channels == 4 ? cur[i + 3] : 255) << 24 | cur[i] << 16 | cur[i + 1] << 8 | cur[i + 2];
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return image;
+	}
+
+	@Test
+	public void encodesOpaqueImagesAsRGB() throws IOException, DataFormatException {
+		PixelBuffer image = image(320, 240, true);
+		byte[] png = new PngEncoder(6).encode(image);
+		assertEquals(2, png[8 + 8 + 9]);
+		assertArrayEquals(image.pixels, decode(png).pixels);
+	}
+
+	@Test
+	public void keepsAlphaWhenNeeded() throws IOException, DataFormatException {
+		PixelBuffer image = image(97, 31, false);
+		byte[] png = new PngEncoder(9).encode(image);
+		assertEquals(6, png[8 + 8 + 9]);
+		assertArrayEquals(image.pixels, decode(png).pixels);
+	}
+
+	// bands are compressed in parallel, the stream must come out the same whatever the number of threads
+	@Test
+	public void bandsJoinUpRegardlessOfThreads() throws Exception {
+		PixelBuffer image = image(800, 616, true);
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			byte[] serial = new PngEncoder(1, single).encode(image);
+			byte[] parallel = new PngEncoder(1).encode(image);
+			assertArrayEquals(serial, parallel);
+			assertArrayEquals(image.pixels, decode(parallel).pixels);
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	@Test
+	public void handlesSingleRows() throws IOException, DataFormatException {
+		PixelBuffer image = image(1, 1, true);
+		assertArrayEquals(image.pixels, decode(new PngEncoder(0).encode(image)).pixels);
+		image = image(5000, 1, true);
+		assertArrayEquals(image.pixels, decode(new PngEncoder(-1).encode(image)).pixels);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+Raw image to PNG converter tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class RawImageConverterTest {
+	private final File directory;
+	private final Map<String, String> converted = new ConcurrentHashMap<>();
+	private final RawImageConverter converter = new RawImageConverter(1, (raw, png, error) -> {
+		assertNull(error);
+		converted.put(png.getName(), raw.getName());
+	});
+
+	public RawImageConverterTest() throws IOException {
+		directory = Files.createTempDirectory("raw").toFile();
+		directory.deleteOnExit();
+	}
+
+	private File raw(String name) throws IOException {
+		PixelBuffer image = new PixelBuffer(4, 2);
+		image.line = image.height;
+		File file = new File(directory, name + RawImage.EXTENSION);
+		file.deleteOnExit();
+		new RawImage().write(file, image);
+		return file;
+	}
+
+	private File file(String name) throws IOException {
+		File file = new File(directory, name);
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[]{1, 2, 3});
+		return file;
+	}
+
+	@Test
+	public void convertsRawImagesAndRetriesUnpublishedOnes() throws Exception {
+		raw("20240101_000000");
+		file("20240101_000001.png");
+		// converted but the raw image was not deleted yet, so it gets converted again
+		raw("20240101_000002");
+		file("20240101_000002.png");
+		// left behind by an interrupted conversion
+		file("20240101_000003.png.part");
+		for (Future<?> future : converter.convertAll(directory))
+			future.get();
+		converter.shutdown();
+		assertEquals(3, converted.size());
+		assertEquals("20240101_000000" + RawImage.EXTENSION, converted.get("20240101_000000.png"));
+		assertEquals("20240101_000001" + RawImage.EXTENSION, converted.get("20240101_000001.png"));
+		assertEquals("20240101_000002" + RawImage.EXTENSION, converted.get("20240101_000002.png"));
+		assertFalse(new File(directory, "20240101_000000" + RawImage.EXTENSION).exists());
+		assertFalse(new File(directory, "20240101_000002" + RawImage.EXTENSION).exists());
+		assertTrue(new File(directory, "20240101_000002.png").length() > 3);
+		for (File file : directory.listFiles())
+			file.delete();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+Receiver engine tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReceiverEngineTest {
+	private static void waitFor(ReceiverEngine.Stream stream, long samples) throws InterruptedException {
+		for (int i = 0; i < 1000 && (stream.samples() < samples || stream.queued() > 0); ++i)
+			Thread.sleep(10);
+	}
+
+	@Test
+	public void decodesAllBlocksWritten() throws Exception {
+		ReceiverEngine engine = new ReceiverEngine(2, 800, 16);
+		ReceiverEngine.Stream stream = engine.addStream(8000, 0);
+		float[] buffer = new float[333];
+		for (int written = 0; written < 8000; written += buffer.length)
+			stream.write(buffer, 0, Math.min(buffer.length, 8000 - written));
+		waitFor(stream, 8000);
+		assertEquals(8000, stream.samples());
+		assertEquals(0, stream.queued());
+		assertEquals(0, stream.dropped());
+		assertEquals(8000, engine.samples());
+		assertEquals(0, engine.queued());
+		assertTrue(stream.busySeconds() > 0);
+		assertTrue(stream.speed() > 0);
+		assertTrue(engine.realTimeFactor() > 0);
+		engine.shutdown();
+	}
+
+	@Test
+	public void keepsPartialBlocksPending() throws Exception {
+		ReceiverEngine engine = new ReceiverEngine(1, 1000, 4);
+		ReceiverEngine.Stream stream = engine.addStream(8000, 0);
+		stream.write(new float[2500], 0, 2500);
+		waitFor(stream, 2000);
+		assertEquals(2000, stream.samples());
+		stream.write(new float[500], 0, 500);
+		waitFor(stream, 3000);
+		assertEquals(3000, stream.samples());
+		engine.shutdown();
+	}
+
+	@Test
+	public void removedStreamStopsDecoding() throws Exception {
+		ReceiverEngine engine = new ReceiverEngine(1, 8000, 64);
+		ReceiverEngine.Stream stream = engine.addStream(8000, 0);
+		float[] second = new float[8000];
+		for (int i = 0; i < 60; ++i)
+			stream.write(second, 0, second.length);
+		engine.removeStream(stream);
+		Thread.sleep(100);
+		long samples = stream.samples();
+		assertEquals(0, stream.queued());
+		Thread.sleep(100);
+		assertEquals(samples, stream.samples());
+		stream.write(second, 0, second.length);
+		Thread.sleep(100);
+		assertEquals(samples, stream.samples());
+		assertEquals(0, stream.queued());
+		assertFalse(engine.streams().iterator().hasNext());
+		engine.shutdown();
+	}
+
+	@Test
+	public void totalsKeepRemovedStreams() throws Exception {
+		ReceiverEngine engine = new ReceiverEngine(2, 800, 16);
+		ReceiverEngine.Stream first = engine.addStream(8000, 0);
+		ReceiverEngine.Stream second = engine.addStream(16000, 0);
+		float[] buffer = new float[1600];
+		first.write(buffer, 0, buffer.length);
+		second.write(buffer, 0, buffer.length);
+		waitFor(first, buffer.length);
+		waitFor(second, buffer.length);
+		double factor = engine.realTimeFactor();
+		engine.removeStream(first);
+		engine.removeStream(first);
+		assertEquals(2 * buffer.length, engine.samples());
+		assertTrue(engine.realTimeFactor() > 0.5 * factor);
+		engine.removeStream(second);
+		assertEquals(2 * buffer.length, engine.samples());
+		assertEquals(0, engine.dropped());
+		engine.shutdown();
+	}
+}
@@ -0,0 +1,69 @@
+/*
+Scan line tracker tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ScanLineTrackerTest {
+	@Test
+	public void locksOntoTheActualPeriod() {
+		ScanLineTracker tracker = new ScanLineTracker(0.25, 3);
+		tracker.reset(0, 1000);
+		double actual = 1004.5;
+		for (int line = 1; line <= 100; ++line)
+			assertTrue(tracker.update((int) Math.round(line * actual), 50));
+		assertEquals(actual, tracker.period(), 0.1);
+		assertEquals(100 * actual, tracker.phase(), 1);
+		assertEquals(tracker.phase() + tracker.period(), tracker.predict(), 0);
+	}
+
+	@Test
+	public void bridgesMissingPulses() {
+		ScanLineTracker tracker = new ScanLineTracker(0.25, 3);
+		tracker.reset(0, 1000);
+		assertTrue(tracker.update(3002, 50));
+		assertEquals(1000, tracker.period(), 1);
+		assertEquals(3000, tracker.phase(), 2);
+	}
+
+	@Test
+	public void losesTrackAfterTooManyOutliers() {
+		ScanLineTracker tracker = new ScanLineTracker(0.25, 3);
+		tracker.reset(0, 1000);
+		assertFalse(tracker.update(1400, 50));
+		assertFalse(tracker.update(2400, 50));
+		assertFalse(tracker.lost());
+		assertTrue(tracker.update(2000, 50));
+		assertFalse(tracker.lost());
+		for (int i = 0; i < 3; ++i)
+			assertFalse(tracker.update(2500 + 1000 * i, 50));
+		assertTrue(tracker.lost());
+	}
+
+	@Test
+	public void restoresScaledToAnotherRate() throws IOException {
+		ScanLineTracker tracker = new ScanLineTracker(0.25, 3);
+		tracker.reset(1200, 1000);
+		tracker.update(2210, 50);
+		tracker.shift(200);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		tracker.save(new DataOutputStream(bytes));
+		ScanLineTracker restored = new ScanLineTracker(0.25, 3);
+		restored.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 2);
+		assertEquals(2 * tracker.phase(), restored.phase(), 1e-9);
+		assertEquals(2 * tracker.period(), restored.period(), 1e-9);
+		assertEquals(2 * tracker.error(), restored.error(), 1e-9);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+Synthetic SSTV signal generator for tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import java.util.Arrays;
+
+class SignalGenerator {
+	private final int sampleRate;
+	private final double skew;
+	private float[] samples;
+	private int length;
+	private double phase;
+	private double time;
+	private double ideal;
+
+	// a skew above one stretches every tone, like a sender with a slow clock
+	SignalGenerator(int sampleRate, double skew) {
+		this.sampleRate = sampleRate;
+		this.skew = skew;
+		samples = new float[sampleRate];
+	}
+
+	private void add(float sample) {
+		if (length == samples.length)
+			samples = Arrays.copyOf(samples, 2 * length);
+		samples[length++] = sample;
+	}
+
+	public void tone(double frequency, double seconds) {
+		ideal += skew * seconds;
+		while (time < ideal) {
+			phase += 2 * Math.PI * frequency / sampleRate;
+			add((float) (0.5 * Math.sin(phase)));
+			time += 1.0 / sampleRate;
+		}
+	}
+
+	public void silence(double seconds) {
+		ideal += seconds;
+		while (time < ideal) {
+			add(0);
+			time += 1.0 / sampleRate;
+		}
+	}
+
+	private void levels(double[] levels, double seconds) {
+		for (double level : levels)
+			tone(1500 + 800 * level, seconds / levels.length);
+	}
+
+	public void header(int code) {
+		tone(1900, 0.3);
+		tone(1200, 0.01);
+		tone(1900, 0.3);
+		tone(1200, 0.03);
+		int ones = 0;
+		for (int i = 0; i < 7; ++i) {
+			int bit = (code >> i) & 1;
+			ones += bit;
+			tone(bit == 1 ? 1100 : 1300, 0.03);
+		}
+		tone((ones & 1) == 1 ? 1100 : 1300, 0.03);
+		tone(1200, 0.03);
+	}
+
+	// a horizontal red ramp, a vertical green ramp and a blue checkerboard
+	public static int[][] testImage(int width, int height) {
+		int[][] image = new int[height][width];
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				image[y][x] = 0xff000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8 | (((x / 40 + y / 40) & 1) == 1 ? 200 : 50);
+		return image;
+	}
+
+	private static double luminance(int pixel) {
+		return (16 + 0.257 * (pixel >> 16 & 255) + 0.504 * (pixel >> 8 & 255) + 0.098 * (pixel & 255)) / 255;
+	}
+
+	private static double blueDifference(int pixel) {
+		return (128 - 0.148 * (pixel >> 16 & 255) - 0.291 * (pixel >> 8 & 255) + 0.439 * (pixel & 255)) / 255;
+	}
+
+	private static double redDifference(int pixel) {
+		return (128 + 0.439 * (pixel >> 16 & 255) - 0.368 * (pixel >> 8 & 255) - 0.071 * (pixel & 255)) / 255;
+	}
+
+	// 320x240 image, the chroma of every pair of lines is averaged
+	public void robot36(int[][] image) {
+		double[] levels = new double[320];
+		for (int y = 0; y < 240; ++y) {
+			int[] row = image[y];
+			tone(1200, 0.009);
+			tone(1500, 0.003);
+			for (int x = 0; x < 320; ++x)
+				levels[x] = luminance(row[x]);
+			levels(levels, 0.088);
+			boolean even = (y & 1) == 0;
+			tone(even ? 1500 : 2300, 0.0045);
+			tone(even ? 1500 : 1900, 0.0015);
+			int[] other = image[even ? y + 1 : y - 1];
+			for (int x = 0; x < 320; ++x)
+				levels[x] = even ? (redDifference(row[x]) + redDifference(other[x])) / 2 : (blueDifference(row[x]) + blueDifference(other[x])) / 2;
+			levels(levels, 0.044);
+		}
+	}
+
+	public float[] samples() {
+		return Arrays.copyOf(samples, length);
+	}
+
+	public static double psnr(PixelBuffer buffer, int[][] image) {
+		double sum = 0;
+		for (int y = 0; y < buffer.height; ++y) {
+			for (int x = 0; x < buffer.width; ++x) {
+				int pixel = buffer.pixels[y * buffer.width + x];
+				for (int shift = 0; shift <= 16; shift += 8) {
+					int error = (pixel >> shift & 255) - (image[y][x] >> shift & 255);
+					sum += error * error;
+				}
+			}
+		}
+		return 10 * Math.log10(255.0 * 255.0 * 3 * buffer.width * buffer.height / sum);
+	}
+}
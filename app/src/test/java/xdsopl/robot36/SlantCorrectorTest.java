@@ -0,0 +1,77 @@
+/*
+Slant corrector tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SlantCorrectorTest {
+	private static final int sampleRate = 8000;
+	private static final int live = 0xff123456;
+	private final Mode mode = RGBModes.Martin("1", 44, 0.146432, sampleRate);
+	private final SlantCorrector corrector = new SlantCorrector(sampleRate, 8800, 8);
+	private final BlockingQueue<Integer> delivered = new LinkedBlockingQueue<>();
+
+	public SlantCorrectorTest() {
+		corrector.setCallback(image -> delivered.add(image.pixels[image.width * image.height / 2]));
+	}
+
+	// a steady gray image, the live copy handed over is filled with a color the recording can not produce
+	private int receive() throws InterruptedException {
+		int period = mode.getScanLineSamples();
+		float[] line = new float[period];
+		corrector.start(mode, line, 0);
+		for (int i = 0; i <= mode.getHeight(); ++i) {
+			corrector.addPulse(i * period, period, 0);
+			corrector.write(line, 0, period);
+		}
+		PixelBuffer image = new PixelBuffer(mode.getWidth(), mode.getHeight());
+		Arrays.fill(image.pixels, live);
+		image.line = image.height;
+		corrector.finish(image);
+		Integer pixel = delivered.poll(10, TimeUnit.SECONDS);
+		assertNotNull(pixel);
+		return pixel;
+	}
+
+	@Test
+	public void correctsFromTheRecording() throws InterruptedException {
+		assertNotEquals(live, receive());
+	}
+
+	@Test
+	public void correctsAgainAfterAnOverflow() throws InterruptedException {
+		corrector.setLimit(10 * mode.getScanLineSamples());
+		assertEquals(live, receive());
+		corrector.setLimit(Integer.MAX_VALUE);
+		assertNotEquals(live, receive());
+	}
+
+	@Test
+	public void correctsAgainAfterARestore() throws InterruptedException, IOException {
+		corrector.start(mode, new float[0], 0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		corrector.save(new DataOutputStream(bytes));
+		corrector.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), mode);
+		PixelBuffer image = new PixelBuffer(mode.getWidth(), mode.getHeight());
+		Arrays.fill(image.pixels, live);
+		corrector.finish(image);
+		assertEquals(live, (int) delivered.poll(10, TimeUnit.SECONDS));
+		assertNotEquals(live, receive());
+	}
+}
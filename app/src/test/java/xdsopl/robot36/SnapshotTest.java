@@ -0,0 +1,113 @@
+/*
+Snapshot helper tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+	private static float[] resample(float[] input, int count, double scale) {
+		float[] output = new float[Snapshot.scale(count, scale)];
+		int[] written = new int[1];
+		Snapshot.resample(input, count, scale, (buffer, offset, length) -> {
+			System.arraycopy(buffer, offset, output, written[0], length);
+			written[0] += length;
+		});
+		assertEquals(output.length, written[0]);
+		return output;
+	}
+
+	@Test
+	public void resamplesAtTheSameRateUnchanged() {
+		float[] input = new float[10000];
+		for (int i = 0; i < input.length; ++i)
+			input[i] = (float) Math.sin(0.01 * i);
+		assertArrayEquals(Arrays.copyOf(input, 9000), resample(input, 9000, 1), 0);
+	}
+
+	@Test
+	public void resamplesLinearly() {
+		float[] input = new float[5000];
+		for (int i = 0; i < input.length; ++i)
+			input[i] = 2 * i;
+		float[] doubled = resample(input, input.length, 2);
+		assertEquals(2 * input.length, doubled.length);
+		for (int k = 0; k < doubled.length - 2; ++k)
+			assertEquals(k, doubled[k], 1e-3);
+		// past the last sample there is nothing to interpolate towards
+		assertEquals(input[input.length - 1], doubled[doubled.length - 1], 0);
+		float[] halved = resample(input, input.length, 0.5);
+		assertEquals(input.length / 2, halved.length);
+		for (int k = 0; k < halved.length; ++k)
+			assertEquals(4 * k, halved[k], 0);
+	}
+
+	@Test
+	public void resamplesNothing() {
+		Snapshot.resample(new float[4], 0, 2, (buffer, offset, length) -> fail());
+	}
+
+	@Test
+	public void floatsAndPixelsSurviveTheRoundTrip() throws IOException {
+		float[] floats = new float[9001];
+		for (int i = 0; i < floats.length; ++i)
+			floats[i] = (float) Math.cos(i) * i;
+		int[] pixels = new int[5000];
+		for (int i = 0; i < pixels.length; ++i)
+			pixels[i] = 0xff000000 | (int) (i * 2654435761L) & 0x00ffffff;
+		Snapshot.Buffer buffer = new Snapshot.Buffer();
+		DataOutputStream out = new DataOutputStream(buffer);
+		Snapshot.writeFloats(out, floats, 1, floats.length - 1);
+		Snapshot.writeFloats(out, floats, 0, 100);
+		Snapshot.writePixels(out, pixels, 0, pixels.length);
+		out.writeInt(0x12345678);
+		assertEquals(4 * (floats.length - 1) + 400 + 3 * pixels.length + 4, buffer.size());
+		DataInputStream in = new DataInputStream(buffer.input());
+		float[] floatsRead = new float[floats.length];
+		Snapshot.readFloats(in, floatsRead, 1, floats.length - 1);
+		assertArrayEquals(Arrays.copyOfRange(floats, 1, floats.length), Arrays.copyOfRange(floatsRead, 1, floats.length), 0);
+		Snapshot.skipFloats(in, 100);
+		int[] pixelsRead = new int[pixels.length];
+		Snapshot.readPixels(in, pixelsRead, 0, pixels.length);
+		assertArrayEquals(pixels, pixelsRead);
+		assertEquals(0x12345678, in.readInt());
+	}
+
+	@Test
+	public void readsPixelsOpaque() throws IOException {
+		Snapshot.Buffer buffer = new Snapshot.Buffer();
+		Snapshot.writePixels(new DataOutputStream(buffer), new int[]{0x00123456, 0x80abcdef}, 0, 2);
+		int[] pixels = new int[2];
+		Snapshot.readPixels(new DataInputStream(buffer.input()), pixels, 0, 2);
+		assertArrayEquals(new int[]{0xff123456, 0xffabcdef}, pixels);
+	}
+
+	@Test(expected = EOFException.class)
+	public void failsOnShortInput() throws IOException {
+		Snapshot.Buffer buffer = new Snapshot.Buffer();
+		Snapshot.writeFloats(new DataOutputStream(buffer), new float[10], 0, 10);
+		Snapshot.readFloats(new DataInputStream(buffer.input()), new float[11], 0, 11);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsNegativeLengths() throws IOException {
+		Snapshot.skipFloats(new DataInputStream(new Snapshot.Buffer().input()), -1);
+	}
+
+	@Test
+	public void scalesPositions() {
+		assertEquals(44100, Snapshot.scale(8000, 44100 / 8000.0));
+		assertEquals(1089, Snapshot.scale(1000, 1.0885));
+	}
+}
@@ -0,0 +1,92 @@
+/*
+Stream ingestion tests
+
+Copyright 2024 Ahmet Inan <xdsopl@gmail.com>
+*/
+
+package xdsopl.robot36;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StreamIngestorTest {
+	private static class Ended implements StreamIngestor.Listener {
+		final CountDownLatch latch;
+		final AtomicReference<IOException> error = new AtomicReference<>();
+
+		Ended(int count) {
+			latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void decoderCreated(StreamIngestor.Ingestion ingestion, Decoder decoder) {
+		}
+
+		@Override
+		public void ingestionEnded(StreamIngestor.Ingestion ingestion, IOException error) {
+			if (error != null)
+				this.error.set(error);
+			latch.countDown();
+		}
+	}
+
+	private static ByteArrayInputStream silence(int frames) {
+		return new ByteArrayInputStream(new byte[2 * frames]);
+	}
+
+	@Test
+	public void totalsKeepEndedIngestions() throws Exception {
+		StreamIngestor ingestor = new StreamIngestor(1000);
+		Ended ended = new Ended(2);
+		StreamIngestor.Ingestion first = ingestor.add("first", silence(8000), 8000, 0, ended);
+		StreamIngestor.Ingestion second = ingestor.add("second", silence(4500), 8000, 0, ended);
+		assertTrue(ended.latch.await(10, TimeUnit.SECONDS));
+		assertNull(ended.error.get());
+		assertEquals(0, ingestor.active());
+		assertFalse(first.running());
+		assertEquals(8000, first.samples());
+		assertEquals(4500, second.samples());
+		assertEquals(12500, ingestor.samples());
+		assertEquals(first.waitSeconds() + second.waitSeconds(), ingestor.waitSeconds(), 1e-9);
+		assertEquals(first.decodeSeconds() + second.decodeSeconds(), ingestor.decodeSeconds(), 1e-9);
+	}
+
+	@Test
+	public void totalsNeverGoDown() throws Exception {
+		StreamIngestor ingestor = new StreamIngestor(800);
+		Ended ended = new Ended(3);
+		double decodeSeconds = 0;
+		long samples = 0;
+		for (int i = 0; i < 3; ++i) {
+			ingestor.add("stream " + i, silence(16000), 8000, 0, ended);
+			assertTrue(ingestor.decodeSeconds() >= decodeSeconds);
+			assertTrue(ingestor.samples() >= samples);
+			decodeSeconds = ingestor.decodeSeconds();
+			samples = ingestor.samples();
+		}
+		assertTrue(ended.latch.await(10, TimeUnit.SECONDS));
+		assertTrue(ingestor.decodeSeconds() >= decodeSeconds);
+		assertEquals(48000, ingestor.samples());
+	}
+
+	@Test
+	public void failedOpenEndsWithError() throws Exception {
+		StreamIngestor ingestor = new StreamIngestor(1000);
+		Ended ended = new Ended(1);
+		StreamIngestor.Ingestion ingestion = ingestor.add("broken", () -> {
+			throw new IOException("no such pipe");
+		}, 8000, 0, ended);
+		assertTrue(ended.latch.await(10, TimeUnit.SECONDS));
+		assertNotNull(ended.error.get());
+		assertEquals(0, ingestion.samples());
+		assertEquals(0, ingestor.active());
+		assertEquals(0, ingestor.samples());
+	}
+}